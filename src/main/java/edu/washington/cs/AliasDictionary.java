@@ -0,0 +1,382 @@
+/*
+ * Entity-alias pairs of an entity-alias file in a compact form, for
+ * MapBasedEntityLinker: each alias and each entity is stored once, as UTF-8
+ * in a single byte array, and numbered, and the candidates of each alias are
+ * a run of entity numbers in a single int array.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * A HashMap<String, HashSet<String>> takes a few hundred bytes per alias in
+ * objects, Strings and set entries; here an alias with one candidate takes
+ * its UTF-8 bytes and about 30 more, so far larger alias files fit in the
+ * heap. Looking up an alias (find(), candidateCount(), candidate()) does not
+ * allocate; only alias() and entity() make Strings. write() saves the
+ * dictionary as a table file for MappedAliasTable.
+ *
+ * @param aliases           Alias of each alias number
+ * @param entities          Entity of each entity number
+ * @param candidateStart    Candidates of alias a are
+ *                          candidates[candidateStart[a] ..
+ *                          candidateStart[a + 1])
+ * @param candidates        Entity numbers, in increasing order within each
+ *                          alias
+ */
+public class AliasDictionary implements AliasTable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private StringPool aliases = new StringPool();
+    private StringPool entities = new StringPool();
+    private int[] candidateStart;
+    private int[] candidates;
+
+    /*
+     * Load an entity-alias file, in the format read by MapBasedEntityLinker:
+     * entity, tab, alias on every line. A pair listed twice counts once.
+     */
+    public AliasDictionary(File entityAliasesFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(
+                                                   entityAliasesFile));
+        Pattern pattern = Pattern.compile("([^\\t]+)\\t([^\\t]+)");
+        //alias number in the high half, entity number in the low half, so
+        //sorting groups the pairs by alias
+        long[] pairs = new long[1024];
+        int pairCount = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null){
+                Matcher entityAliasMatcher = pattern.matcher(line);
+                if (entityAliasMatcher.matches()){
+                    int entity = entities.add(entityAliasMatcher.group(1));
+                    int alias = aliases.add(entityAliasMatcher.group(2));
+                    if (pairCount == pairs.length){
+                        pairs = Arrays.copyOf(pairs, 2 * pairCount);
+                    }
+                    pairs[pairCount++] = ((long) alias << 32) | entity;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        aliases.trim();
+        entities.trim();
+        index(pairs, pairCount);
+    }
+
+    /*
+     * Load an entity-alias file and report its size and load time.
+     */
+    public static void main(String[] args) throws IOException {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: entity aliases file.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        AliasDictionary dictionary = new AliasDictionary(new File(args[0]));
+        System.out.println(String.format("%d aliases, %d entities, %d pairs "
+                           + "loaded in %.1f s, %.1f MB",
+                           dictionary.size(), dictionary.entityCount(),
+                           dictionary.pairCount(),
+                           (System.nanoTime() - start) / 1e9,
+                           dictionary.heapBytes() / 1e6));
+    }
+
+    /*
+     * Build candidateStart and candidates from the pairs.
+     */
+    private void index(long[] pairs, int pairCount){
+        Arrays.sort(pairs, 0, pairCount);
+        candidateStart = new int[aliases.size() + 1];
+        candidates = new int[pairCount];
+        int count = 0;
+        for (int i = 0; i < pairCount; i++){
+            if (i > 0 && pairs[i] == pairs[i - 1]){
+                continue;
+            }
+            candidateStart[(int) (pairs[i] >>> 32) + 1]++;
+            candidates[count++] = (int) pairs[i];
+        }
+        for (int alias = 0; alias < aliases.size(); alias++){
+            candidateStart[alias + 1] += candidateStart[alias];
+        }
+        candidates = Arrays.copyOf(candidates, count);
+    }
+
+    public int size(){
+        return aliases.size();
+    }
+
+    /*
+     * Number of distinct entities.
+     */
+    public int entityCount(){
+        return entities.size();
+    }
+
+    /*
+     * Number of distinct entity-alias pairs.
+     */
+    public int pairCount(){
+        return candidates.length;
+    }
+
+    /*
+     * Approximate heap taken by the dictionary, in bytes.
+     */
+    public long heapBytes(){
+        return aliases.heapBytes() + entities.heapBytes()
+               + 4L * (candidateStart.length + candidates.length);
+    }
+
+    public int find(String alias){
+        return aliases.find(alias);
+    }
+
+    public String alias(int alias){
+        return aliases.get(alias);
+    }
+
+    public int candidateCount(int alias){
+        return candidateStart[alias + 1] - candidateStart[alias];
+    }
+
+    public int candidate(int alias, int i){
+        return candidates[candidateStart[alias] + i];
+    }
+
+    public String entity(int entity){
+        return entities.get(entity);
+    }
+
+    /*
+     * Write the dictionary as a table file, in the layout described in
+     * MappedAliasTable, so it can be mapped rather than loaded.
+     */
+    public void write(File tableFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                               new FileOutputStream(tableFile)));
+        try {
+            out.writeInt(MappedAliasTable.MAGIC);
+            out.writeInt(MappedAliasTable.VERSION);
+            out.writeInt(aliases.size());
+            out.writeInt(entities.size());
+            out.writeInt(aliases.table.length);
+            out.writeInt(candidates.length);
+            out.writeInt(aliases.offsets[aliases.size()]);
+            out.writeInt(entities.offsets[entities.size()]);
+            writeInts(out, aliases.table, aliases.table.length);
+            writeInts(out, aliases.hashes, aliases.size());
+            writeInts(out, aliases.offsets, aliases.size() + 1);
+            out.write(aliases.bytes.array(), 0, 
+                      aliases.offsets[aliases.size()]);
+            writeInts(out, candidateStart, candidateStart.length);
+            writeInts(out, candidates, candidates.length);
+            writeInts(out, entities.offsets, entities.size() + 1);
+            out.write(entities.bytes.array(), 0, 
+                      entities.offsets[entities.size()]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, 
+                                  int count) throws IOException {
+        for (int i = 0; i < count; i++){
+            out.writeInt(values[i]);
+        }
+    }
+
+    /*
+     * Spread the bits of String.hashCode(), which differ little between
+     * similar strings, over the low bits used for a hash table slot.
+     */
+    static int mix(int hash){
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ (hash >>> 13);
+    }
+
+    /*
+     * Whether bytes[start .. end) is string in UTF-8, decoding it as it goes
+     * rather than making a String of it.
+     */
+    static boolean utf8Equals(ByteBuffer bytes, int start, int end,
+                              String string){
+        int b = start;
+        int c = 0;
+        int length = string.length();
+        while (b < end){
+            int first = bytes.get(b++) & 0xff;
+            int codePoint;
+            if (first < 0x80){
+                codePoint = first;
+            } else if (first < 0xe0){
+                codePoint = (first & 0x1f) << 6 | (bytes.get(b++) & 0x3f);
+            } else if (first < 0xf0){
+                codePoint = (first & 0x0f) << 12
+                            | (bytes.get(b++) & 0x3f) << 6
+                            | (bytes.get(b++) & 0x3f);
+            } else {
+                codePoint = (first & 0x07) << 18
+                            | (bytes.get(b++) & 0x3f) << 12
+                            | (bytes.get(b++) & 0x3f) << 6
+                            | (bytes.get(b++) & 0x3f);
+            }
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT){
+                if (c == length || string.charAt(c) != codePoint){
+                    return false;
+                }
+                c++;
+            } else {
+                if (c + 1 >= length
+                    || string.charAt(c) != Character.highSurrogate(codePoint)
+                    || string.charAt(c + 1)
+                       != Character.lowSurrogate(codePoint)){
+                    return false;
+                }
+                c += 2;
+            }
+        }
+        return c == length;
+    }
+
+    /*
+     * bytes[start .. end) decoded from UTF-8.
+     */
+    static String utf8String(ByteBuffer bytes, int start, int end){
+        byte[] utf8 = new byte[end - start];
+        for (int i = 0; i < utf8.length; i++){
+            utf8[i] = bytes.get(start + i);
+        }
+        return new String(utf8, UTF8);
+    }
+
+    /*
+     * Strings stored once each as UTF-8, numbered in the order added, with
+     * an open-addressing (linear probing) hash table from each to its
+     * number, kept at most half full.
+     * @param bytes     The strings, one after the other, in an array
+     * @param offsets   Start of each string in bytes, then the end of the
+     *                  last one
+     * @param hashes    String.hashCode() of each string
+     * @param table     Number + 1 of the string in each slot, 0 if empty
+     */
+    private static class StringPool {
+        private ByteBuffer bytes = ByteBuffer.allocate(1024);
+        private int[] offsets = new int[65];
+        private int[] hashes = new int[64];
+        private int[] table = new int[128];
+        private int size = 0;
+
+        int size(){
+            return size;
+        }
+
+        /*
+         * @return  number of string, added if it is new
+         */
+        int add(String string){
+            int hash = string.hashCode();
+            int slot = slot(string, hash);
+            if (table[slot] > 0){
+                return table[slot] - 1;
+            }
+            byte[] utf8 = string.getBytes(UTF8);
+            int start = offsets[size];
+            if (start + utf8.length > bytes.capacity()){
+                long length = Math.max(2L * bytes.capacity(),
+                                       (long) start + utf8.length);
+                if (length > Integer.MAX_VALUE - 8){
+                    throw new IllegalStateException("More than 2 GB of "
+                                                    + "strings");
+                }
+                bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), 
+                                                      (int) length));
+            }
+            if (size == hashes.length){
+                hashes = Arrays.copyOf(hashes, 2 * size);
+                offsets = Arrays.copyOf(offsets, 2 * size + 1);
+            }
+            System.arraycopy(utf8, 0, bytes.array(), start, utf8.length);
+            offsets[size + 1] = start + utf8.length;
+            hashes[size] = hash;
+            table[slot] = ++size;
+            if (2 * size > table.length){
+                rehash(2 * table.length);
+            }
+            return size - 1;
+        }
+
+        /*
+         * @return  number of string, or -1 if it was never added
+         */
+        int find(String string){
+            return table[slot(string, string.hashCode())] - 1;
+        }
+
+        String get(int number){
+            return new String(bytes.array(), offsets[number],
+                              offsets[number + 1] - offsets[number], UTF8);
+        }
+
+        /*
+         * Drop the room left for more strings.
+         */
+        void trim(){
+            bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), 
+                                                  offsets[size]));
+            offsets = Arrays.copyOf(offsets, size + 1);
+            hashes = Arrays.copyOf(hashes, size);
+        }
+
+        long heapBytes(){
+            return bytes.capacity()
+                   + 4L * (offsets.length + hashes.length + table.length);
+        }
+
+        /*
+         * Slot holding string, or the empty slot where it would go.
+         */
+        private int slot(String string, int hash){
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            while (table[slot] > 0){
+                int number = table[slot] - 1;
+                if (hashes[number] == hash
+                    && utf8Equals(bytes, offsets[number], 
+                                  offsets[number + 1], string)){
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void rehash(int length){
+            table = new int[length];
+            int mask = length - 1;
+            for (int number = 0; number < size; number++){
+                int slot = mix(hashes[number]) & mask;
+                while (table[slot] > 0){
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = number + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Finds every alias of an entity-alias file in a text at once, with an
+ * Aho-Corasick automaton, as a stand-in for NER when only mentions that
+ * match an alias are wanted, as with MapBasedEntityLinker.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * The automaton works on characters, so aliases do not need tokenizing, but
+ * a match only counts if it starts at the start of a token and ends at the
+ * end of one, so "Ted" is not found in "Tedious". Any run of whitespace
+ * matches any other, since text is often wrapped in the middle of a name;
+ * otherwise matching is exact, as linking is.
+ *
+ * The trie is stored in arrays: the children of node n are
+ * childLabels/childNodes[childStart[n] .. childStart[n + 1]), sorted by
+ * label. Node 0 is the root.
+ *
+ * @param aliases       Alias of each alias number, as in the alias file
+ * @param depth         Length of the (whitespace normalized) string of each
+ *                      node
+ * @param alias         Number of the alias ending at each node, or -1
+ * @param failure       Longest proper suffix of each node that is a node
+ * @param output        Longest proper suffix of each node at which an alias
+ *                      ends, or 0
+ */
+public class AliasMatcher {
+    private String[] aliases;
+    private int[] childStart;
+    private char[] childLabels;
+    private int[] childNodes;
+    private int[] depth;
+    private int[] alias;
+    private int[] failure;
+    private int[] output;
+
+    /*
+     * An alias found in a text.
+     * @param start     Offset of its first character in the text
+     * @param end       Offset after its last character
+     * @param alias     The alias as in the alias file, which may differ from
+     *                  the text in whitespace
+     */
+    public static class Match {
+        public final int start;
+        public final int end;
+        public final String alias;
+
+        Match(int matchStart, int matchEnd, String matched){
+            start = matchStart;
+            end = matchEnd;
+            alias = matched;
+        }
+    }
+
+    /*
+     * Load the aliases of an entity-alias file, in the format read by
+     * MapBasedEntityLinker: entity, tab, alias on every line.
+     */
+    public AliasMatcher(File entityAliasesFile) throws IOException {
+        this(readAliases(entityAliasesFile));
+    }
+
+    public AliasMatcher(Collection<String> aliasStrings){
+        build(aliasStrings);
+    }
+
+    private static List<String> readAliases(File entityAliasesFile)
+                                            throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(
+                                                   entityAliasesFile));
+        List<String> aliasStrings = new ArrayList<String>();
+        Pattern pattern = Pattern.compile("([^\\t]+)\\t([^\\t]+)");
+        try {
+            String line;
+            while ((line = reader.readLine()) != null){
+                Matcher entityAliasMatcher = pattern.matcher(line);
+                if (entityAliasMatcher.matches()){
+                    aliasStrings.add(entityAliasMatcher.group(2));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return aliasStrings;
+    }
+
+    /*
+     * Number of distinct aliases.
+     */
+    public int size(){
+        return aliases.length;
+    }
+
+    /*
+     * Find the aliases in text that start at a token start and end at a
+     * token end. Where matches overlap, the one starting first is kept, and
+     * of those starting at the same place, the longest, as NER would tag a
+     * single span.
+     * @param tokenStarts   Offset in text of the start of each token
+     * @param tokenEnds     Offset in text after the end of each token
+     * @return  matches in text order
+     */
+    public List<Match> find(String text, int[] tokenStarts, int[] tokenEnds){
+        boolean[] starts = new boolean[text.length() + 1];
+        boolean[] ends = new boolean[text.length() + 1];
+        for (int i = 0; i < tokenStarts.length; i++){
+            starts[tokenStarts[i]] = true;
+            ends[tokenEnds[i]] = true;
+        }
+
+        List<Match> found = new ArrayList<Match>();
+        //original offset of each character the automaton is given, with
+        //whitespace runs given as one space
+        int[] offsets = new int[text.length()];
+        int length = 0;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)){
+                if (i > 0 && Character.isWhitespace(text.charAt(i - 1))){
+                    continue;
+                }
+                c = ' ';
+            }
+            offsets[length++] = i;
+            node = next(node, c);
+            int matched = alias[node] >= 0 ? node : output[node];
+            while (matched > 0){
+                int start = offsets[length - depth[matched]];
+                if (starts[start] && ends[i + 1]){
+                    found.add(new Match(start, i + 1,
+                                        aliases[alias[matched]]));
+                }
+                matched = output[matched];
+            }
+        }
+        return longestLeftmost(found);
+    }
+
+    private static List<Match> longestLeftmost(List<Match> found){
+        if (found.size() < 2){
+            return found;
+        }
+        Collections.sort(found, new Comparator<Match>(){
+            public int compare(Match a, Match b){
+                if (a.start != b.start){
+                    return a.start < b.start ? -1 : 1;
+                }
+                return a.end > b.end ? -1 : a.end == b.end ? 0 : 1;
+            }
+        });
+        List<Match> kept = new ArrayList<Match>();
+        int end = -1;
+        for (Match match : found){
+            if (match.start >= end){
+                kept.add(match);
+                end = match.end;
+            }
+        }
+        return kept;
+    }
+
+    /*
+     * State after reading c in state node.
+     */
+    private int next(int node, char c){
+        while (true){
+            int child = child(node, c);
+            if (child >= 0){
+                return child;
+            }
+            if (node == 0){
+                return 0;
+            }
+            node = failure[node];
+        }
+    }
+
+    private int child(int node, char c){
+        int low = childStart[node];
+        int high = childStart[node + 1] - 1;
+        while (low <= high){
+            int middle = (low + high) >>> 1;
+            char label = childLabels[middle];
+            if (label < c){
+                low = middle + 1;
+            } else if (label > c){
+                high = middle - 1;
+            } else {
+                return childNodes[middle];
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Build the trie with a map per node, then add failure and output
+     * links breadth first, and pack it all into arrays.
+     */
+    private void build(Collection<String> aliasStrings){
+        List<Map<Character, Integer>> children
+            = new ArrayList<Map<Character, Integer>>();
+        children.add(new HashMap<Character, Integer>());
+        List<String> numbered = new ArrayList<String>();
+        //alias number of each node, grown as nodes are added
+        int[] nodeAlias = new int[16];
+        Arrays.fill(nodeAlias, -1);
+        int[] nodeDepth = new int[16];
+        for (String aliasString : aliasStrings){
+            String normalized = normalize(aliasString);
+            if (normalized.isEmpty()){
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < normalized.length(); i++){
+                Integer child = children.get(node).get(normalized.charAt(i));
+                if (child == null){
+                    child = children.size();
+                    children.add(new HashMap<Character, Integer>());
+                    if (child == nodeAlias.length){
+                        nodeAlias = Arrays.copyOf(nodeAlias, 2 * child);
+                        Arrays.fill(nodeAlias, child, 2 * child, -1);
+                        nodeDepth = Arrays.copyOf(nodeDepth, 2 * child);
+                    }
+                    nodeDepth[child] = i + 1;
+                    children.get(node).put(normalized.charAt(i), child);
+                }
+                node = child;
+            }
+            //the first of aliases that differ only in whitespace is kept
+            if (nodeAlias[node] < 0){
+                nodeAlias[node] = numbered.size();
+                numbered.add(aliasString);
+            }
+        }
+
+        int nodes = children.size();
+        aliases = numbered.toArray(new String[numbered.size()]);
+        alias = Arrays.copyOf(nodeAlias, nodes);
+        depth = Arrays.copyOf(nodeDepth, nodes);
+        childStart = new int[nodes + 1];
+        for (int node = 0; node < nodes; node++){
+            childStart[node + 1] = childStart[node]
+                                   + children.get(node).size();
+        }
+        childLabels = new char[childStart[nodes]];
+        childNodes = new int[childStart[nodes]];
+        for (int node = 0; node < nodes; node++){
+            Character[] labels = children.get(node).keySet().toArray(
+                                 new Character[0]);
+            Arrays.sort(labels);
+            for (int i = 0; i < labels.length; i++){
+                childLabels[childStart[node] + i] = labels[i];
+                childNodes[childStart[node] + i]
+                    = children.get(node).get(labels[i]);
+            }
+        }
+
+        failure = new int[nodes];
+        output = new int[nodes];
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(0);
+        while (!queue.isEmpty()){
+            int node = queue.poll();
+            for (int i = childStart[node]; i < childStart[node + 1]; i++){
+                int child = childNodes[i];
+                if (node != 0){
+                    failure[child] = next(failure[node], childLabels[i]);
+                }
+                int fail = failure[child];
+                output[child] = alias[fail] >= 0 ? fail : output[fail];
+                queue.add(child);
+            }
+        }
+    }
+
+    /*
+     * Trimmed, with every run of whitespace replaced by one space.
+     */
+    private static String normalize(String text){
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)){
+                normalized.append(c);
+            } else if (i > 0 && !Character.isWhitespace(text.charAt(i - 1))){
+                normalized.append(' ');
+            }
+        }
+        //drop a trailing space
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == ' '){
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+}
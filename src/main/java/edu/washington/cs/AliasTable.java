@@ -0,0 +1,28 @@
+/*
+ * Interface for a table of aliases and the entities each may stand for,
+ * with aliases and entities looked up by number, as MapBasedEntityLinker
+ * uses it.
+ * Implementations: AliasDictionary, loaded into the heap from an
+ * entity-alias file, and MappedAliasTable, mapped from a table file.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+public interface AliasTable {
+    /*
+     * Number of distinct aliases, which are numbered from 0.
+     */
+    public int size();
+    /*
+     * @return  number of alias, or -1 if it is not in the table
+     */
+    public int find(String alias);
+    public String alias(int alias);
+    public int candidateCount(int alias);
+    /*
+     * @param i     Which candidate of alias, from 0 to candidateCount - 1
+     * @return  entity number of the candidate
+     */
+    public int candidate(int alias, int i);
+    public String entity(int entity);
+}
@@ -7,9 +7,21 @@ package edu.washington.cs;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+/*
+ * @param sourceOffset  Byte offset of the document (its <DOC> tag) in the raw
+ *                      corpus file, or -1 if not known
+ * @param sourceLength  Length in bytes of the document in the raw corpus
+ *                      file, up to and including </DOC>, or -1 if not known
+ * @param duplicateOf   ID of an earlier document this one is a near-duplicate
+ *                      of, or null
+ * @see NearDuplicateFilter
+ */
 public class AnnotatedDoc {
     private String docID;
     private ArrayList<Sentence> sentences;
+    private long sourceOffset = -1;
+    private long sourceLength = -1;
+    private String duplicateOf = null;
 
     /*
      * Empty constructor exists mostly to allow for use of Jackson ObjectMapper
@@ -40,10 +52,34 @@ public class AnnotatedDoc {
         sentences.add(new Sentence(sentence));
     }
 
+    public void setSourceOffset(long offset){
+        sourceOffset = offset;
+    }
+
+    public void setSourceLength(long length){
+        sourceLength = length;
+    }
+
+    public void setDuplicateOf(String id){
+        duplicateOf = id;
+    }
+
     public String getID(){
         return docID;
     }
 
+    public long getSourceOffset(){
+        return sourceOffset;
+    }
+
+    public long getSourceLength(){
+        return sourceLength;
+    }
+
+    public String getDuplicateOf(){
+        return duplicateOf;
+    }
+
     public ArrayList<Sentence> getSentences(){
         return sentences;
     }
@@ -0,0 +1,11 @@
+/*
+ * Interface for class that will receive AnnotatedDocs one at a time as they
+ * are produced, e.g., as a CorpusConverter finishes each document, so that a
+ * whole corpus file never needs to be held in memory at once.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+public interface AnnotatedDocConsumer {
+    public void consume(AnnotatedDoc doc) throws Exception;
+}
@@ -0,0 +1,20 @@
+/* File name: AnnotatedDocSource.java
+   Documents from a corpus file, read lazily one at a time, which can be split
+   so that parts can be processed in different threads.
+   @author Laurel Hart
+*/
+package edu.washington.cs;
+import java.io.Closeable;
+import java.util.Iterator;
+
+public interface AnnotatedDocSource extends Iterator<AnnotatedDoc>, Closeable {
+    /*
+     * Hand some of the documents not yet read to a new source, e.g., to be
+     * processed by another thread. The new source gets the documents after
+     * the ones left in this source, so file order is this source followed
+     * by the new one. Each source must only be used by one thread at a time,
+     * and each must be closed.
+     * @return  null if the remaining documents can not be split
+     */
+    public AnnotatedDocSource trySplit();
+}
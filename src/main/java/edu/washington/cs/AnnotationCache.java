@@ -0,0 +1,300 @@
+/*
+ * Persistent cache of CoreNLP annotations, so that rerunning the pipeline on
+ * the same corpus, e.g., to try another linker or relation set, does not pay
+ * for the same NLP again.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.pipeline.Annotation;
+
+/*
+ * Entries are content addressed: the key is a SHA-1 hash of the text that
+ * was annotated together with a description of how it was annotated
+ * (annotators, models, settings), so a changed configuration never gets a
+ * stale result. Each entry is one gzipped file in the format of
+ * AnnotationWriter, named by its key, in one of 256 subdirectories.
+ *
+ * The total size of entries is bounded; least recently used entries are
+ * deleted to make room. Use is recorded in the files' modification times,
+ * so the order survives between runs. Several threads may use one cache.
+ * Writes go to a temporary file which is then renamed, so a reader never
+ * sees a partial entry, even from another process.
+ *
+ * @param entries   Size of each entry by key, least recently used first
+ */
+public class AnnotationCache {
+    public static final long DEFAULT_MAX_BYTES = 10L << 30;
+    private static final String EXTENSION = ".ann.gz";
+
+    private boolean VERBOSE = false;
+    private File directory;
+    private long maxBytes;
+    private long totalBytes = 0;
+    private LinkedHashMap<String, Long> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long stores = 0;
+    private long evictions = 0;
+
+    public AnnotationCache(File dir) throws IOException {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /*
+     * Open the cache in dir, creating it if needed.
+     * @param bytes     Maximum total size of entries on disk
+     */
+    public AnnotationCache(File dir, long bytes) throws IOException {
+        directory = dir;
+        maxBytes = bytes;
+        entries = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Unable to create annotation cache "
+                                  + directory);
+        }
+        load();
+    }
+
+    public void setVerbose(boolean verbose){
+        VERBOSE = verbose;
+    }
+
+    /*
+     * Key for text annotated with the given configuration.
+     * @param config    Everything besides the text that the annotation
+     *                  depends on, e.g., annotators and their properties
+     */
+    public static String key(String config, String text){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e){
+            //every Java platform is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+        try {
+            digest.update(config.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(text.getBytes("UTF-8"));
+        } catch (IOException e){
+            throw new RuntimeException(e);
+        }
+        StringBuilder hex = new StringBuilder(40);
+        for (byte b : digest.digest()){
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * @return  cached annotation, or null if there is none. An entry that
+     *          can not be read is deleted and counted as a miss.
+     */
+    public Annotation get(String key){
+        synchronized (this){
+            //get, not containsKey, to mark the entry as recently used
+            if (entries.get(key) == null){
+                misses++;
+                return null;
+            }
+        }
+        File file = entryFile(key);
+        try {
+            AnnotationReader in = new AnnotationReader(
+                                  new BufferedInputStream(
+                                  new GZIPInputStream(
+                                  new FileInputStream(file))));
+            Annotation annotation;
+            try {
+                annotation = in.read();
+            } finally {
+                in.close();
+            }
+            if (annotation == null){
+                throw new IOException("Empty cache entry");
+            }
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this){
+                hits++;
+            }
+            return annotation;
+        } catch (Exception e){
+            if (VERBOSE){
+                System.out.println("Dropping unreadable cache entry " + file
+                                   + ": " + e);
+            }
+            synchronized (this){
+                remove(key);
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /*
+     * Store annotation under key, making room if needed.
+     */
+    public void put(String key, Annotation annotation) throws IOException {
+        File file = entryFile(key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()){
+            throw new IOException("Unable to create " + parent);
+        }
+        File temporary = File.createTempFile(key, ".tmp", parent);
+        try {
+            AnnotationWriter out = new AnnotationWriter(
+                                   new BufferedOutputStream(
+                                   new GZIPOutputStream(
+                                   new FileOutputStream(temporary))));
+            try {
+                out.write(annotation);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)){
+                //e.g., on Windows if another thread just stored the same key
+                file.delete();
+                if (!temporary.renameTo(file)){
+                    throw new IOException("Unable to store cache entry "
+                                          + file);
+                }
+            }
+        } finally {
+            temporary.delete();
+        }
+        synchronized (this){
+            Long replaced = entries.put(key, file.length());
+            if (replaced != null){
+                totalBytes -= replaced;
+            }
+            totalBytes += file.length();
+            stores++;
+            evict();
+        }
+    }
+
+    public synchronized long getHits(){
+        return hits;
+    }
+
+    public synchronized long getMisses(){
+        return misses;
+    }
+
+    public synchronized double getHitRate(){
+        return (double) hits / Math.max(1, hits + misses);
+    }
+
+    public synchronized long getBytes(){
+        return totalBytes;
+    }
+
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /*
+     * Print hit rate and size of the cache.
+     */
+    public synchronized void report(PrintStream out){
+        out.println(String.format("Annotation cache: %d hits, %d misses "
+                    + "(%.1f%% hit rate), %d stored, %d evicted, %d entries "
+                    + "using %.1f of %.1f MB", hits, misses,
+                    100 * getHitRate(), stores, evictions, entries.size(),
+                    totalBytes / 1e6, maxBytes / 1e6));
+    }
+
+    private File entryFile(String key){
+        return new File(new File(directory, key.substring(0, 2)),
+                        key + EXTENSION);
+    }
+
+    /*
+     * Read existing entries, oldest use first. Temporary files left by an
+     * interrupted run are deleted.
+     */
+    private void load(){
+        ArrayList<File> files = new ArrayList<File>();
+        File[] shards = directory.listFiles();
+        if (shards != null){
+            for (File shard : shards){
+                File[] shardFiles = shard.listFiles();
+                if (shardFiles == null){
+                    continue;
+                }
+                for (File file : shardFiles){
+                    if (file.getName().endsWith(EXTENSION)){
+                        files.add(file);
+                    } else if (file.getName().endsWith(".tmp")){
+                        file.delete();
+                    }
+                }
+            }
+        }
+        final Map<File, Long> used = new LinkedHashMap<File, Long>();
+        for (File file : files){
+            used.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>(){
+            public int compare(File a, File b){
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+        for (File file : files){
+            String name = file.getName();
+            String key = name.substring(0, name.length()
+                                           - EXTENSION.length());
+            entries.put(key, file.length());
+            totalBytes += file.length();
+        }
+        evict();
+        if (VERBOSE){
+            System.out.println("Annotation cache " + directory + ": "
+                               + entries.size() + " entries");
+        }
+    }
+
+    /*
+     * Delete least recently used entries until under the size limit.
+     */
+    private void evict(){
+        Iterator<Map.Entry<String, Long>> eldest
+            = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()){
+            Map.Entry<String, Long> entry = eldest.next();
+            entryFile(entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key){
+        Long bytes = entries.remove(key);
+        if (bytes != null){
+            totalBytes -= bytes;
+            entryFile(key).delete();
+        }
+    }
+}
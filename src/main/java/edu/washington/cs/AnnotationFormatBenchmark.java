@@ -0,0 +1,207 @@
+/*
+ * Compares ways of saving CoreNLP annotations of a corpus file: CoreNLP's
+ * XML output, Java serialization, and AnnotationWriter's binary format, for
+ * size and for time to write and read back.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+/*
+ * Paragraphs of the first documents of the file are annotated with the full
+ * pipeline, including the parser, and then saved in memory, so that disk
+ * speed does not count. Everything but "binary" is gzipped, as the XML
+ * output of CoreNLPProcessor is. The binary annotations are also read back
+ * and written again, to check that nothing is lost.
+ */
+public class AnnotationFormatBenchmark {
+    private static final String ANNOTATORS
+        = "tokenize, ssplit, pos, lemma, ner, parse";
+
+    private StanfordCoreNLP pipeline;
+    private ArrayList<Annotation> annotations;
+    private int repetitions;
+
+    public AnnotationFormatBenchmark(int reps){
+        repetitions = reps;
+        Properties properties = new Properties();
+        properties.put("annotators", ANNOTATORS);
+        pipeline = new StanfordCoreNLP(properties);
+        annotations = new ArrayList<Annotation>();
+    }
+
+    public static void main(String[] args) throws Exception {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: input file. "
+                               + "Optional: number of documents, "
+                               + "repetitions.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        int docs = 50;
+        int reps = 5;
+        if (args.length > 1){
+            docs = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2){
+            reps = Integer.parseInt(args[2]);
+        }
+        AnnotationFormatBenchmark benchmark
+            = new AnnotationFormatBenchmark(reps);
+        benchmark.annotate(new File(args[0]), docs);
+        benchmark.run();
+    }
+
+    public void annotate(File input, int docs) throws Exception {
+        AnnotatedDocSource source = new GigawordScannerConverter().open(input);
+        try {
+            for (int i = 0; i < docs && source.hasNext(); i++){
+                for (Sentence paragraph : source.next().getSentences()){
+                    Annotation annotation = new Annotation(
+                                            paragraph.getSentence());
+                    pipeline.annotate(annotation);
+                    annotations.add(annotation);
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    public void run() throws Exception {
+        System.out.println(annotations.size() + " annotated paragraphs");
+        byte[] xml = null;
+        byte[] serialized = null;
+        byte[] binary = null;
+        byte[] binaryGzipped = null;
+        long[] best = new long[6];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int i = 0; i <= repetitions; i++){
+            long start = System.nanoTime();
+            xml = writeXML();
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            serialized = writeSerialized();
+            best[1] = Math.min(best[1], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            binary = writeBinary(false);
+            best[2] = Math.min(best[2], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            binaryGzipped = writeBinary(true);
+            best[3] = Math.min(best[3], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            readSerialized(serialized);
+            best[4] = Math.min(best[4], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            readBinary(binaryGzipped);
+            best[5] = Math.min(best[5], System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-24s %10s %10s %10s", "format",
+                           "bytes", "write ms", "read ms"));
+        print("CoreNLP XML, gzipped", xml.length, best[0], -1);
+        print("Java serialization, gz", serialized.length, best[1], best[4]);
+        print("binary", binary.length, best[2], -1);
+        print("binary, gzipped", binaryGzipped.length, best[3], best[5]);
+
+        //write what was read back again; it should come out the same
+        ByteArrayOutputStream again = new ByteArrayOutputStream();
+        AnnotationWriter writer = new AnnotationWriter(again);
+        for (Annotation annotation : readBinary(binaryGzipped)){
+            writer.write(annotation);
+        }
+        writer.close();
+        System.out.println("Binary round trip "
+                           + (Arrays.equals(binary, again.toByteArray())
+                              ? "identical" : "DIFFERS"));
+    }
+
+    private static void print(String format, int bytes, long writeNanos,
+                              long readNanos){
+        System.out.println(String.format("%-24s %10d %10.1f %10s", format,
+                           bytes, writeNanos / 1e6, readNanos < 0 ? "-"
+                           : String.format("%.1f", readNanos / 1e6)));
+    }
+
+    private byte[] writeXML() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        for (Annotation annotation : annotations){
+            pipeline.xmlPrint(annotation, out);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] writeSerialized() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(
+                                 new BufferedOutputStream(
+                                 new GZIPOutputStream(bytes)));
+        for (Annotation annotation : annotations){
+            out.writeObject(annotation);
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private ArrayList<Annotation> readSerialized(byte[] serialized)
+                                                 throws Exception {
+        ObjectInputStream in = new ObjectInputStream(
+                               new BufferedInputStream(
+                               new GZIPInputStream(
+                               new ByteArrayInputStream(serialized))));
+        ArrayList<Annotation> read = new ArrayList<Annotation>();
+        for (int i = 0; i < annotations.size(); i++){
+            read.add((Annotation) in.readObject());
+        }
+        in.close();
+        return read;
+    }
+
+    private byte[] writeBinary(boolean gzip) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = gzip ? new BufferedOutputStream(
+                                  new GZIPOutputStream(bytes)) : bytes;
+        AnnotationWriter writer = new AnnotationWriter(out);
+        for (Annotation annotation : annotations){
+            writer.write(annotation);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private ArrayList<Annotation> readBinary(byte[] binary) throws Exception {
+        AnnotationReader reader = new AnnotationReader(
+                                  new BufferedInputStream(
+                                  new GZIPInputStream(
+                                  new ByteArrayInputStream(binary))));
+        ArrayList<Annotation> read = new ArrayList<Annotation>();
+        Annotation annotation;
+        while ((annotation = reader.read()) != null){
+            read.add(annotation);
+        }
+        reader.close();
+        return read;
+    }
+}
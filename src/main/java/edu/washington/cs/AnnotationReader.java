@@ -0,0 +1,273 @@
+/*
+ * Reads back CoreNLP annotations written by AnnotationWriter, so annotation
+ * does not have to be redone.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations.*;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.*;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.LabeledScoredTreeReaderFactory;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations.*;
+import edu.stanford.nlp.trees.TreeNormalizer;
+import edu.stanford.nlp.trees.TreeReaderFactory;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.TypesafeMap;
+
+/*
+ * Rebuilds Annotations as the CoreNLP pipeline makes them: a document with
+ * sentences, each with its tokens, parse tree and basic dependencies, ready
+ * to be used or annotated further.
+ * @see AnnotationWriter for the format
+ * @param strings   Strings read so far, by number
+ */
+public class AnnotationReader {
+    //trees as printed, without the usual stripping of functional tags
+    private static final TreeReaderFactory TREES
+        = new LabeledScoredTreeReaderFactory(CoreLabel.factory(),
+                                             new TreeNormalizer());
+
+    private InputStream input;
+    private ArrayList<String> strings;
+
+    public AnnotationReader(InputStream in) throws IOException {
+        input = in;
+        strings = new ArrayList<String>();
+        if (readVarint() != AnnotationWriter.MAGIC){
+            throw new IOException("Not a binary annotation stream");
+        }
+        int version = readVarint();
+        if (version != AnnotationWriter.VERSION){
+            throw new IOException("Unsupported binary annotation version "
+                                  + version);
+        }
+    }
+
+    /*
+     * @return  next annotation, or null at the end of the stream
+     */
+    public Annotation read() throws IOException {
+        int first = input.read();
+        if (first == -1){
+            return null;
+        }
+        String text = readText(readVarint(first));
+        Annotation annotation = new Annotation(text);
+        int parts = readVarint();
+        int sentenceCount = readVarint();
+        List<CoreMap> sentences = new ArrayList<CoreMap>(sentenceCount);
+        List<CoreLabel> allTokens = new ArrayList<CoreLabel>();
+        for (int i = 0; i < sentenceCount; i++){
+            CoreMap sentence = readSentence(text);
+            allTokens.addAll(sentence.get(TokensAnnotation.class));
+            sentences.add(sentence);
+        }
+        if ((parts & AnnotationWriter.DOCUMENT_TOKENS) != 0){
+            annotation.set(TokensAnnotation.class, allTokens);
+        }
+        annotation.set(SentencesAnnotation.class, sentences);
+        return annotation;
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private CoreMap readSentence(String text) throws IOException {
+        int begin = readVarint();
+        int end = begin + readVarint();
+        int tokenBegin = readVarint();
+        int index = readVarint();
+        int parts = readVarint();
+        int tokenCount = readVarint();
+        List<CoreLabel> tokens = new ArrayList<CoreLabel>(tokenCount);
+        int previousEnd = begin;
+        for (int i = 0; i < tokenCount; i++){
+            int tokenStart = previousEnd + readSignedVarint();
+            int tokenEnd = tokenStart + readVarint();
+            previousEnd = tokenEnd;
+            int flags = readVarint();
+            String original = (flags & AnnotationWriter.ORIGINAL_IS_TEXT) != 0
+                              ? text.substring(tokenStart, tokenEnd)
+                              : readString();
+            String word = (flags & AnnotationWriter.WORD_IS_ORIGINAL) != 0
+                          ? original : readString();
+            String value = (flags & AnnotationWriter.VALUE_IS_WORD) != 0
+                           ? word : readString();
+            String lemma = (flags & AnnotationWriter.LEMMA_IS_WORD) != 0
+                           ? word : readString();
+
+            CoreLabel token = new CoreLabel();
+            setIfPresent(token, ValueAnnotation.class, value);
+            setIfPresent(token, TextAnnotation.class, word);
+            setIfPresent(token, OriginalTextAnnotation.class, original);
+            token.setBeginPosition(tokenStart);
+            token.setEndPosition(tokenEnd);
+            setIfPresent(token, BeforeAnnotation.class, readString());
+            setIfPresent(token, AfterAnnotation.class, readString());
+            setIfPresent(token, PartOfSpeechAnnotation.class, readString());
+            setIfPresent(token, LemmaAnnotation.class, lemma);
+            setIfPresent(token, NamedEntityTagAnnotation.class, readString());
+            setIfPresent(token, NormalizedNamedEntityTagAnnotation.class,
+                         readString());
+            if ((flags & AnnotationWriter.HAS_INDEX) != 0){
+                token.setIndex(i + 1);
+            }
+            if ((flags & AnnotationWriter.HAS_TOKEN_INDEXES) != 0){
+                token.set(BeginIndexAnnotation.class, i);
+                token.set(EndIndexAnnotation.class, i + 1);
+            }
+            if ((flags & AnnotationWriter.OTHER_TOKEN_INDEXES) != 0){
+                token.set(BeginIndexAnnotation.class, readVarint());
+                token.set(EndIndexAnnotation.class, readVarint());
+            }
+            if ((flags & AnnotationWriter.HAS_SENTENCE_INDEX) != 0){
+                token.setSentIndex(index);
+            }
+            tokens.add(token);
+        }
+
+        Annotation sentence = new Annotation(text.substring(begin, end));
+        sentence.set(CharacterOffsetBeginAnnotation.class, begin);
+        sentence.set(CharacterOffsetEndAnnotation.class, end);
+        sentence.set(TokensAnnotation.class, tokens);
+        sentence.set(TokenBeginAnnotation.class, tokenBegin);
+        sentence.set(TokenEndAnnotation.class, tokenBegin + tokenCount);
+        sentence.set(SentenceIndexAnnotation.class, index);
+        if ((parts & AnnotationWriter.TREE) != 0){
+            sentence.set(TreeAnnotation.class, Tree.valueOf(
+                         readText(readVarint()), TREES));
+        }
+        if ((parts & AnnotationWriter.BASIC_DEPENDENCIES) != 0){
+            sentence.set(BasicDependenciesAnnotation.class,
+                         readDependencies(tokens, index));
+        }
+        return sentence;
+    }
+
+    private SemanticGraph readDependencies(List<CoreLabel> tokens,
+                                           int sentenceIndex)
+                                           throws IOException {
+        SemanticGraph graph = new SemanticGraph();
+        IndexedWord[] words = new IndexedWord[tokens.size() + 1];
+        int vertexCount = readVarint();
+        for (int i = 0; i < vertexCount; i++){
+            graph.addVertex(word(words, readVarint(), tokens, sentenceIndex));
+        }
+        int rootCount = readVarint();
+        for (int i = 0; i < rootCount; i++){
+            graph.addRoot(word(words, readVarint(), tokens, sentenceIndex));
+        }
+        int edgeCount = readVarint();
+        for (int i = 0; i < edgeCount; i++){
+            IndexedWord governor = word(words, readVarint(), tokens,
+                                        sentenceIndex);
+            IndexedWord dependent = word(words, readVarint(), tokens,
+                                         sentenceIndex);
+            GrammaticalRelation relation = GrammaticalRelation.valueOf(
+                                           readString());
+            graph.addEdge(governor, dependent, relation,
+                          Double.NEGATIVE_INFINITY, false);
+        }
+        return graph;
+    }
+
+    /*
+     * Graph node for the word with the given index (from 1) in the sentence.
+     */
+    private static IndexedWord word(IndexedWord[] words, int index,
+                                    List<CoreLabel> tokens, int sentenceIndex)
+                                    throws IOException {
+        if (index < 1 || index >= words.length){
+            throw new IOException("Dependency on word " + index + " of a "
+                                  + tokens.size() + " word sentence");
+        }
+        if (words[index] == null){
+            CoreLabel label = new CoreLabel(tokens.get(index - 1));
+            label.setIndex(index);
+            label.setSentIndex(sentenceIndex);
+            words[index] = new IndexedWord(label);
+        }
+        return words[index];
+    }
+
+    private static <T> void setIfPresent(CoreLabel token,
+            Class<? extends TypesafeMap.Key<T>> key, T value){
+        if (value != null){
+            token.set(key, value);
+        }
+    }
+
+    private String readString() throws IOException {
+        int reference = readVarint();
+        if (reference == AnnotationWriter.NULL_STRING){
+            return null;
+        }
+        if (reference == AnnotationWriter.NEW_STRING){
+            String string = readText(readVarint());
+            strings.add(string);
+            return string;
+        }
+        int number = reference - AnnotationWriter.FIRST_STRING;
+        if (number >= strings.size()){
+            throw new IOException("Corrupt binary annotation (string "
+                                  + number + " not yet defined)");
+        }
+        return strings.get(number);
+    }
+
+    private String readText(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length){
+            int count = input.read(bytes, read, length - read);
+            if (count < 0){
+                throw new EOFException("Unexpected end of binary "
+                                       + "annotation");
+            }
+            read += count;
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private int readSignedVarint() throws IOException {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarint() throws IOException {
+        int first = input.read();
+        if (first == -1){
+            throw new EOFException("Unexpected end of binary annotation");
+        }
+        return readVarint(first);
+    }
+
+    private int readVarint(int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0){
+            b = input.read();
+            if (b == -1){
+                throw new EOFException("Unexpected end of binary "
+                                       + "annotation");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Writes CoreNLP annotations in a compact binary format, which, unlike
+ * CoreNLP's XML output, can be read back into an Annotation by
+ * AnnotationReader.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations.*;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.*;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations.*;
+import edu.stanford.nlp.util.CoreMap;
+
+/*
+ * A stream holds any number of annotations. Integers are written as varints
+ * (7 bits a byte, low bits first), and offsets as differences from the
+ * previous offset, so most take one byte. Strings other than the text itself
+ * (words, tags, relation names, ...) are written out the first time they
+ * occur in the stream and by number after that. Token strings that can be
+ * derived, e.g., original text that is the same as the token's span of the
+ * text, are not written at all.
+ *
+ * Kept for each sentence: offsets, tokens with their word, original text,
+ * whitespace before and after, POS, lemma and NER tags, the parse tree, and
+ * the basic dependencies as (governor, dependent, relation) triples. The
+ * collapsed dependency graphs are not kept; they can be rebuilt from the
+ * tree.
+ *
+ * @param strings   Number of each string written so far
+ */
+public class AnnotationWriter {
+    static final int MAGIC = 0x414E4E31;
+    static final int VERSION = 1;
+
+    //document parts
+    static final int DOCUMENT_TOKENS = 1;
+    //sentence parts
+    static final int TREE = 1;
+    static final int BASIC_DEPENDENCIES = 2;
+    //what can be derived for a token
+    static final int ORIGINAL_IS_TEXT = 1;
+    static final int WORD_IS_ORIGINAL = 2;
+    static final int VALUE_IS_WORD = 4;
+    static final int LEMMA_IS_WORD = 8;
+    static final int HAS_INDEX = 16;
+    static final int HAS_TOKEN_INDEXES = 32;
+    static final int HAS_SENTENCE_INDEX = 64;
+    static final int OTHER_TOKEN_INDEXES = 128;
+    //string references
+    static final int NULL_STRING = 0;
+    static final int NEW_STRING = 1;
+    static final int FIRST_STRING = 2;
+
+    private OutputStream output;
+    private HashMap<String, Integer> strings;
+
+    public AnnotationWriter(OutputStream out) throws IOException {
+        output = out;
+        strings = new HashMap<String, Integer>();
+        writeVarint(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    public void write(Annotation annotation) throws IOException {
+        String text = annotation.get(TextAnnotation.class);
+        writeText(text);
+        List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+        if (sentences == null){
+            sentences = Collections.emptyList();
+        }
+        writeVarint(annotation.containsKey(TokensAnnotation.class)
+                    ? DOCUMENT_TOKENS : 0);
+        writeVarint(sentences.size());
+        for (CoreMap sentence : sentences){
+            writeSentence(sentence, text);
+        }
+    }
+
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    public void close() throws IOException {
+        output.close();
+    }
+
+    private void writeSentence(CoreMap sentence, String text)
+                               throws IOException {
+        int begin = sentence.get(CharacterOffsetBeginAnnotation.class);
+        int end = sentence.get(CharacterOffsetEndAnnotation.class);
+        Integer tokenBegin = sentence.get(TokenBeginAnnotation.class);
+        Integer index = sentence.get(SentenceIndexAnnotation.class);
+        Tree tree = sentence.get(TreeAnnotation.class);
+        SemanticGraph dependencies = sentence.get(
+                                     BasicDependenciesAnnotation.class);
+        List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+        writeVarint(begin);
+        writeVarint(end - begin);
+        writeVarint(tokenBegin == null ? 0 : tokenBegin);
+        writeVarint(index == null ? 0 : index);
+        writeVarint((tree == null ? 0 : TREE)
+                    | (dependencies == null ? 0 : BASIC_DEPENDENCIES));
+        writeVarint(tokens.size());
+        int previousEnd = begin;
+        for (int i = 0; i < tokens.size(); i++){
+            CoreLabel token = tokens.get(i);
+            int tokenStart = token.beginPosition();
+            int tokenEnd = token.endPosition();
+            writeSignedVarint(tokenStart - previousEnd);
+            writeVarint(tokenEnd - tokenStart);
+            previousEnd = tokenEnd;
+
+            String original = token.originalText();
+            String word = token.word();
+            String value = token.value();
+            String lemma = token.lemma();
+            int flags = 0;
+            if (original != null && tokenStart >= 0 && tokenEnd >= tokenStart
+                && tokenEnd <= text.length()
+                && text.regionMatches(tokenStart, original, 0,
+                                      original.length())
+                && original.length() == tokenEnd - tokenStart){
+                flags |= ORIGINAL_IS_TEXT;
+            }
+            if (word != null && word.equals(original)){
+                flags |= WORD_IS_ORIGINAL;
+            }
+            if (value != null && value.equals(word)){
+                flags |= VALUE_IS_WORD;
+            }
+            if (lemma != null && lemma.equals(word)){
+                flags |= LEMMA_IS_WORD;
+            }
+            if (token.containsKey(IndexAnnotation.class)){
+                flags |= HAS_INDEX;
+            }
+            Integer beginIndex = token.get(BeginIndexAnnotation.class);
+            Integer endIndex = token.get(EndIndexAnnotation.class);
+            if (beginIndex != null && endIndex != null){
+                //the parser numbers tokens within the sentence
+                flags |= beginIndex == i && endIndex == i + 1
+                         ? HAS_TOKEN_INDEXES : OTHER_TOKEN_INDEXES;
+            }
+            if (token.containsKey(SentenceIndexAnnotation.class)){
+                flags |= HAS_SENTENCE_INDEX;
+            }
+            writeVarint(flags);
+            if ((flags & ORIGINAL_IS_TEXT) == 0){
+                writeString(original);
+            }
+            if ((flags & WORD_IS_ORIGINAL) == 0){
+                writeString(word);
+            }
+            if ((flags & VALUE_IS_WORD) == 0){
+                writeString(value);
+            }
+            if ((flags & LEMMA_IS_WORD) == 0){
+                writeString(lemma);
+            }
+            writeString(token.before());
+            writeString(token.after());
+            writeString(token.tag());
+            writeString(token.ner());
+            writeString(token.get(NormalizedNamedEntityTagAnnotation.class));
+            if ((flags & OTHER_TOKEN_INDEXES) != 0){
+                writeVarint(beginIndex);
+                writeVarint(endIndex);
+            }
+        }
+        if (tree != null){
+            writeText(tree.toString());
+        }
+        if (dependencies != null){
+            writeDependencies(dependencies);
+        }
+    }
+
+    /*
+     * Vertices, roots, then edges as (governor, dependent, relation), with
+     * words given by their index in the sentence.
+     */
+    private void writeDependencies(SemanticGraph graph) throws IOException {
+        ArrayList<IndexedWord> vertices = new ArrayList<IndexedWord>(
+                                          graph.vertexSet());
+        Collections.sort(vertices);
+        writeVarint(vertices.size());
+        for (IndexedWord vertex : vertices){
+            writeVarint(vertex.index());
+        }
+        writeVarint(graph.getRoots().size());
+        for (IndexedWord root : graph.getRoots()){
+            writeVarint(root.index());
+        }
+        List<SemanticGraphEdge> edges = graph.edgeListSorted();
+        writeVarint(edges.size());
+        for (SemanticGraphEdge edge : edges){
+            writeVarint(edge.getSource().index());
+            writeVarint(edge.getTarget().index());
+            writeString(edge.getRelation().toString());
+        }
+    }
+
+    private void writeString(String string) throws IOException {
+        if (string == null){
+            writeVarint(NULL_STRING);
+            return;
+        }
+        Integer number = strings.get(string);
+        if (number != null){
+            writeVarint(FIRST_STRING + number);
+            return;
+        }
+        strings.put(string, strings.size());
+        writeVarint(NEW_STRING);
+        writeText(string);
+    }
+
+    /*
+     * UTF-8, preceded by its length in bytes.
+     */
+    private void writeText(String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        writeVarint(bytes.length);
+        output.write(bytes);
+    }
+
+    private void writeSignedVarint(int value) throws IOException {
+        //zigzag, so small negative numbers are small too
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+}
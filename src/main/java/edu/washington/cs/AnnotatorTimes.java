@@ -0,0 +1,177 @@
+/*
+ * Time spent in each CoreNLP annotator, and the tokens and sentences it got
+ * through, for the whole run and for each input file.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.stanford.nlp.ling.CoreAnnotations.*;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+
+/*
+ * Annotators are timed by wrapping them (see wrap()), so every call through
+ * a pipeline or directly is counted. Calls from any thread are added up, so
+ * with several preprocessing threads wall time is the sum over threads, not
+ * elapsed time. CPU time is that of the calling thread, 0 where the JVM
+ * does not measure it.
+ *
+ * @param total     Counters of each annotator over the whole run
+ * @param files     Counters of each annotator by input file, in the order
+ *                  files were started
+ * @param current   Counters of the file being annotated
+ */
+class AnnotatorTimes {
+    private static final ThreadMXBean THREADS
+        = ManagementFactory.getThreadMXBean();
+    private static final String NO_FILE = "(no file)";
+
+    private Map<String, Counters> total = new LinkedHashMap<String, Counters>();
+    private Map<String, Map<String, Counters>> files
+        = new LinkedHashMap<String, Map<String, Counters>>();
+    private Map<String, Counters> current = null;
+
+    private static class Counters {
+        long calls;
+        long wallNanos;
+        long cpuNanos;
+        long tokens;
+        long sentences;
+    }
+
+    /*
+     * Annotator that adds the time and work of each call to these times.
+     */
+    private class Timed implements Annotator {
+        private String name;
+        private Annotator annotator;
+
+        Timed(String annotatorName, Annotator timed){
+            name = annotatorName;
+            annotator = timed;
+        }
+
+        public void annotate(Annotation annotation){
+            long cpu = cpuTime();
+            long start = System.nanoTime();
+            try {
+                annotator.annotate(annotation);
+            } finally {
+                long wall = System.nanoTime() - start;
+                cpu = cpuTime() - cpu;
+                record(name, wall, cpu,
+                       size(annotation.get(TokensAnnotation.class)),
+                       size(annotation.get(SentencesAnnotation.class)));
+            }
+        }
+
+        public Set<Requirement> requires(){
+            return annotator.requires();
+        }
+
+        public Set<Requirement> requirementsSatisfied(){
+            return annotator.requirementsSatisfied();
+        }
+    }
+
+    /*
+     * Annotator timed under the given name. Annotators wrapped with the
+     * same name are counted together.
+     */
+    public Annotator wrap(String name, Annotator annotator){
+        return new Timed(name, annotator);
+    }
+
+    /*
+     * Count calls from now on towards file, until the next file is started.
+     * Starting a file again adds to its earlier counts.
+     */
+    public synchronized void startFile(String file){
+        current = files.get(file);
+        if (current == null){
+            current = new LinkedHashMap<String, Counters>();
+            files.put(file, current);
+        }
+    }
+
+    /*
+     * Print the counts of the whole run, then of each file.
+     */
+    public synchronized void print(PrintStream out){
+        print(out, "all files", total);
+        for (Map.Entry<String, Map<String, Counters>> file
+             : files.entrySet()){
+            print(out, file.getKey(), file.getValue());
+        }
+    }
+
+    /*
+     * Print the counts of the file started last.
+     */
+    public synchronized void printFile(PrintStream out){
+        for (Map.Entry<String, Map<String, Counters>> file
+             : files.entrySet()){
+            if (file.getValue() == current){
+                print(out, file.getKey(), current);
+            }
+        }
+    }
+
+    private synchronized void record(String annotator, long wallNanos,
+                                     long cpuNanos, int tokens,
+                                     int sentences){
+        if (current == null){
+            startFile(NO_FILE);
+        }
+        add(total, annotator, wallNanos, cpuNanos, tokens, sentences);
+        add(current, annotator, wallNanos, cpuNanos, tokens, sentences);
+    }
+
+    private static void add(Map<String, Counters> counters, String annotator,
+                            long wallNanos, long cpuNanos, int tokens,
+                            int sentences){
+        Counters count = counters.get(annotator);
+        if (count == null){
+            count = new Counters();
+            counters.put(annotator, count);
+        }
+        count.calls++;
+        count.wallNanos += wallNanos;
+        count.cpuNanos += cpuNanos;
+        count.tokens += tokens;
+        count.sentences += sentences;
+    }
+
+    private static void print(PrintStream out, String title,
+                              Map<String, Counters> counters){
+        out.println("Annotator times, " + title + ":");
+        out.println(String.format("  %-18s %8s %9s %9s %10s %9s",
+                    "annotator", "calls", "wall s", "cpu s", "tokens/s",
+                    "sents/s"));
+        for (Map.Entry<String, Counters> entry : counters.entrySet()){
+            Counters count = entry.getValue();
+            double seconds = Math.max(count.wallNanos, 1) / 1e9;
+            out.println(String.format("  %-18s %8d %9.2f %9.2f %10.0f %9.1f",
+                        entry.getKey(), count.calls, count.wallNanos / 1e9,
+                        count.cpuNanos / 1e9, count.tokens / seconds,
+                        count.sentences / seconds));
+        }
+    }
+
+    private static long cpuTime(){
+        return THREADS.isCurrentThreadCpuTimeSupported()
+               ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static int size(List<?> list){
+        return list == null ? 0 : list.size();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * AnnotatedDocSource for documents that can only be read in order, e.g., 
+ * from a gzipped file or a SAX parser, or that are already in memory.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Splitting reads the next batch of documents into memory: this source keeps
+ * the batch, and the new source takes over reading the rest. Batches grow
+ * with each split, so that splitting a large file a few times gives work to 
+ * several threads without holding the whole file in memory.
+ *
+ * @param docs      Documents still to be returned by this source
+ * @param resource  What to close once done with docs, or null
+ */
+public class BatchingDocSource implements AnnotatedDocSource {
+    private static final int BATCH_INCREMENT = 64;
+    private static final int MAX_BATCH = 4096;
+
+    private Iterator<AnnotatedDoc> docs;
+    private Closeable resource;
+    private int batchSize;
+
+    public BatchingDocSource(Iterator<AnnotatedDoc> documents, 
+                             Closeable closeable){
+        this(documents, closeable, BATCH_INCREMENT);
+    }
+
+    private BatchingDocSource(Iterator<AnnotatedDoc> documents, 
+                              Closeable closeable, int batch){
+        docs = documents;
+        resource = closeable;
+        batchSize = batch;
+    }
+
+    public boolean hasNext(){
+        return docs.hasNext();
+    }
+
+    public AnnotatedDoc next(){
+        if (!docs.hasNext()){
+            throw new NoSuchElementException();
+        }
+        return docs.next();
+    }
+
+    public void remove(){
+        throw new UnsupportedOperationException();
+    }
+
+    public AnnotatedDocSource trySplit(){
+        if (!docs.hasNext()){
+            return null;
+        }
+        ArrayList<AnnotatedDoc> batch = new ArrayList<AnnotatedDoc>();
+        while (batch.size() < batchSize && docs.hasNext()){
+            batch.add(docs.next());
+        }
+        if (!docs.hasNext()){
+            //nothing left to hand over
+            docs = batch.iterator();
+            return null;
+        }
+        BatchingDocSource rest = new BatchingDocSource(docs, resource, 
+                                 Math.min(batchSize + BATCH_INCREMENT, 
+                                          MAX_BATCH));
+        docs = batch.iterator();
+        resource = null;
+        return rest;
+    }
+
+    public void close() throws IOException {
+        if (resource != null){
+            resource.close();
+            resource = null;
+        }
+    }
+}
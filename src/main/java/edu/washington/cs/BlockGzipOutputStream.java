@@ -0,0 +1,203 @@
+/*
+ * Writes gzip as a series of small, independent members (blocks), in the
+ * BGZF style used by samtools/htslib: each member's header records its own
+ * compressed size, so a reader can find every block without decompressing
+ * and can decompress blocks in parallel.
+ * The output is still a valid gzip file for any other gzip reader.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * @param BLOCK_SIZE    Uncompressed bytes per block. Small enough that even
+ *                      incompressible data fits the 16 bit block size field.
+ * @param pending       Blocks handed to the pool, in output order. Bounded so
+ *                      a slow disk does not pile up compressed blocks.
+ */
+public class BlockGzipOutputStream extends OutputStream {
+    public static final int BLOCK_SIZE = 65280;
+    static final int HEADER_SIZE = 18;
+    static final int TRAILER_SIZE = 8;
+    static final int MAX_BLOCK = 65536;
+
+    private OutputStream output;
+    private ExecutorService pool;
+    private ArrayDeque<Future<byte[]>> pending;
+    private int maxPending;
+    private byte[] buffer;
+    private int length = 0;
+    private boolean closed = false;
+
+    /*
+     * @param threads   Number of threads to compress with. 1 compresses in
+     *                  the calling thread.
+     */
+    public BlockGzipOutputStream(OutputStream out, int threads){
+        output = out;
+        buffer = new byte[BLOCK_SIZE];
+        pending = new ArrayDeque<Future<byte[]>>();
+        if (threads > 1){
+            pool = Utils.newDaemonPool(threads, "gzip");
+            maxPending = threads * 4;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+    	if ( args.length < 2 ){
+            System.err.println("Required arguments: input file, output file."
+                               + " Optional: number of threads.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 2){
+            threads = Integer.parseInt(args[2]);
+        }
+        Utils.blockGzip(new File(args[0]), new File(args[1]), threads);
+    }
+
+    public void write(int b) throws IOException {
+        if (length == buffer.length){
+            writeBlock();
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        while (count > 0){
+            if (length == buffer.length){
+                writeBlock();
+            }
+            int copied = Math.min(count, buffer.length - length);
+            System.arraycopy(bytes, offset, buffer, length, copied);
+            length += copied;
+            offset += copied;
+            count -= copied;
+        }
+    }
+
+    /*
+     * Ends the current block early, and writes out every block so far.
+     */
+    public void flush() throws IOException {
+        if (length > 0){
+            writeBlock();
+        }
+        while (!pending.isEmpty()){
+            output.write(take(pending.poll()));
+        }
+        output.flush();
+    }
+
+    /*
+     * Writes out remaining data followed by an empty block, which BGZF
+     * readers take as the end of file marker.
+     */
+    public void close() throws IOException {
+        if (closed){
+            return;
+        }
+        try {
+            flush();
+            output.write(compress(buffer, 0));
+            output.close();
+        } finally {
+            closed = true;
+            if (pool != null){
+                pool.shutdown();
+            }
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (pool == null){
+            output.write(compress(buffer, length));
+            length = 0;
+            return;
+        }
+        final byte[] block = new byte[length];
+        System.arraycopy(buffer, 0, block, 0, length);
+        length = 0;
+        pending.add(pool.submit(new Callable<byte[]>(){
+            public byte[] call(){
+                return compress(block, block.length);
+            }
+        }));
+        //keep order and limit memory by waiting on the oldest block
+        while (pending.size() > maxPending){
+            output.write(take(pending.poll()));
+        }
+    }
+
+    private byte[] take(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e){
+            throw new IOException("Unable to compress block", e.getCause());
+        }
+    }
+
+    /*
+     * Compress data into one complete gzip member, with the block size in
+     * a "BC" extra field.
+     */
+    static byte[] compress(byte[] data, int count){
+        byte[] block = new byte[MAX_BLOCK];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        int compressed;
+        try {
+            deflater.setInput(data, 0, count);
+            deflater.finish();
+            compressed = deflater.deflate(block, HEADER_SIZE,
+                         MAX_BLOCK - HEADER_SIZE - TRAILER_SIZE);
+            if (!deflater.finished()){
+                //does not fit even though deflate output is never much
+                //bigger than its input, so store uncompressed instead
+                deflater.reset();
+                deflater.setLevel(Deflater.NO_COMPRESSION);
+                deflater.setInput(data, 0, count);
+                deflater.finish();
+                compressed = deflater.deflate(block, HEADER_SIZE,
+                             MAX_BLOCK - HEADER_SIZE - TRAILER_SIZE);
+            }
+        } finally {
+            deflater.end();
+        }
+        int size = HEADER_SIZE + compressed + TRAILER_SIZE;
+
+        //magic, deflate, FEXTRA, no mtime, no extra flags, unknown OS
+        byte[] header = {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255,
+                         //XLEN = 6, subfield "BC", SLEN = 2, BSIZE
+                         6, 0, 'B', 'C', 2, 0,
+                         (byte) (size - 1), (byte) ((size - 1) >> 8)};
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, count);
+        writeInt(block, size - TRAILER_SIZE, crc.getValue());
+        writeInt(block, size - 4, count);
+
+        byte[] member = new byte[size];
+        System.arraycopy(block, 0, member, 0, size);
+        return member;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, long value){
+        for (int i = 0; i < 4; i++){
+            bytes[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+}
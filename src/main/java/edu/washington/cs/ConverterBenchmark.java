@@ -0,0 +1,165 @@
+/*
+ * Times the CorpusConverters over a corpus file, so that changes to corpus
+ * conversion can be compared on real data, e.g., a Gigaword month file.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+
+/*
+ * Each Trial is run once to warm up, then the given number of times.
+ * Trials are interleaved so that page cache and JIT effects are spread
+ * evenly across them.
+ * Where the JVM can report it, the memory allocated by each trial is also
+ * given, since garbage collection makes up much of conversion time.
+ */
+public class ConverterBenchmark {
+    private ArrayList<Trial> trials;
+    private int repetitions;
+
+    /*
+     * A named way of converting a file. 
+     * @return  number of AnnotatedDocs produced
+     */
+    private static abstract class Trial {
+        String name;
+        long totalNanos = 0;
+        long bestNanos = Long.MAX_VALUE;
+        long allocatedBytes = 0;
+        int docs = 0;
+
+        Trial(String trialName){
+            name = trialName;
+        }
+
+        abstract int run(File input) throws Exception;
+    }
+
+    public ConverterBenchmark(int reps){
+        repetitions = reps;
+        trials = new ArrayList<Trial>();
+
+        //what SAXGigawordConverter used to do with root-less Gigaword: 
+        //parse until the missing root is noticed, then reopen and reparse
+        trials.add(new Trial("SAX, reparse with added root"){
+            int run(File input) throws Exception {
+                SAXGigawordConverter converter = new SAXGigawordConverter();
+                converter.setDecompressionThreads(1);
+                converter.setDialect(SAXGigawordConverter.Dialect.ROOTED);
+                converter.convert(input);
+                converter.setDialect(SAXGigawordConverter.Dialect.ROOTLESS);
+                return converter.convert(input).size();
+            }
+        });
+        trials.add(new Trial("SAX, single pass"){
+            int run(File input) throws Exception {
+                SAXGigawordConverter converter = new SAXGigawordConverter();
+                converter.setDecompressionThreads(1);
+                return converter.convert(input).size();
+            }
+        });
+        //same as sequential unless input is block-gzipped or indexed
+        trials.add(new Trial("SAX, parallel decompression"){
+            int run(File input) throws Exception {
+                SAXGigawordConverter converter = new SAXGigawordConverter();
+                return converter.convert(input).size();
+            }
+        });
+        trials.add(new Trial("StripSGML, line by line"){
+            int run(File input) throws Exception {
+                return new StripSGML().convert(input).size();
+            }
+        });
+        trials.add(new Trial("GigawordScanner, tracking offsets"){
+            int run(File input) throws Exception {
+                SAXGigawordConverter converter = new SAXGigawordConverter();
+                converter.setDecompressionThreads(1);
+                converter.setTrackOffsets(true);
+                return converter.convert(input).size();
+            }
+        });
+        trials.add(new Trial("GigawordScannerConverter"){
+            int run(File input) throws Exception {
+                GigawordScannerConverter converter = 
+                    new GigawordScannerConverter();
+                converter.setDecompressionThreads(1);
+                converter.setConversionThreads(1);
+                return converter.convert(input).size();
+            }
+        });
+        //same as sequential unless input is uncompressed
+        trials.add(new Trial("GigawordScannerConverter, mapped chunks"){
+            int run(File input) throws Exception {
+                return new GigawordScannerConverter().convert(input).size();
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: input file. "
+                               + "Optional: repetitions.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+    	File input = new File(args[0]);
+        int reps = 3;
+        if (args.length > 1){
+            reps = Integer.parseInt(args[1]);
+        }
+
+        ConverterBenchmark benchmark = new ConverterBenchmark(reps);
+        benchmark.run(input);
+        benchmark.report(System.out);
+    }
+
+    public void run(File input) throws Exception {
+        System.out.println("Benchmarking conversion of " + input + " ("
+                           + input.length() + " bytes)");
+        //warm up
+        for (Trial trial : trials){
+            trial.docs = trial.run(input);
+        }
+        for (int i = 0; i < repetitions; i++){
+            for (Trial trial : trials){
+                System.gc();
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                trial.docs = trial.run(input);
+                long elapsed = System.nanoTime() - start;
+                trial.allocatedBytes += allocatedBytes() - allocated;
+                trial.totalNanos += elapsed;
+                trial.bestNanos = Math.min(trial.bestNanos, elapsed);
+            }
+        }
+    }
+
+    public void report(PrintStream out){
+        for (Trial trial : trials){
+            out.println(String.format("%-40s %8d docs  best %8.1f ms  "
+                        + "mean %8.1f ms  %8.1f MB allocated", trial.name, 
+                        trial.docs, trial.bestNanos / 1e6, 
+                        trial.totalNanos / 1e6 / Math.max(1, repetitions),
+                        trial.allocatedBytes / 1e6 
+                        / Math.max(1, repetitions)));
+        }
+    }
+
+    /*
+     * Bytes allocated by this thread so far, or 0 if the JVM can not tell.
+     * Decompression threads are not counted.
+     */
+    private static long allocatedBytes(){
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean){
+            return ((com.sun.management.ThreadMXBean) bean)
+                   .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
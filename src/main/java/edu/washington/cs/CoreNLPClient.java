@@ -0,0 +1,108 @@
+/*
+ * Submits preprocessing and MultiR output jobs to a running CoreNLPDaemon,
+ * in place of CoreNLPProcessor.main and MultiRCompiler.main, so a job
+ * starts without loading any models.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/*
+ * If no daemon is listening, preprocess and process jobs are run in this
+ * JVM instead, loading the models as the mains do.
+ * @see CoreNLPDaemon for the protocol
+ */
+public class CoreNLPClient {
+    private int port;
+
+    public CoreNLPClient(int daemonPort){
+        port = daemonPort;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || (args.length < 3
+            && (args[0].equals(CoreNLPDaemon.PREPROCESS)
+                || args[0].equals(CoreNLPDaemon.PROCESS)))){
+            System.err.println("Required arguments: preprocess or process, "
+                               + "input file, output directory; or ping or "
+                               + "stop. Optional: daemon port.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        String command = args[0];
+        boolean job = command.equals(CoreNLPDaemon.PREPROCESS)
+                      || command.equals(CoreNLPDaemon.PROCESS);
+        int portArg = job ? 3 : 1;
+        int port = CoreNLPDaemon.DEFAULT_PORT;
+        if (args.length > portArg){
+            port = Integer.parseInt(args[portArg]);
+        }
+        CoreNLPClient client = new CoreNLPClient(port);
+        String reply;
+        try {
+            reply = job ? client.submit(command, new File(args[1]),
+                                        new File(args[2]))
+                        : client.send(command);
+        } catch (ConnectException e){
+            if (!job){
+                System.err.println("No CoreNLP daemon on port " + port + ".");
+                System.exit(1);
+            }
+            System.err.println("No CoreNLP daemon on port " + port
+                               + ". Running the job here.");
+            new CoreNLPDaemon(new CoreNLPProcessor()).run(command,
+                new File(args[1]).getAbsoluteFile(),
+                new File(args[2]).getAbsoluteFile());
+            return;
+        }
+        System.out.println(reply);
+        if (!reply.startsWith(CoreNLPDaemon.OK)){
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Run a preprocess or process job on the daemon and wait for it.
+     * @return  the daemon's reply
+     */
+    public String submit(String command, File input, File output)
+                         throws IOException {
+        return send(command + CoreNLPDaemon.SEPARATOR
+                    + input.getAbsolutePath() + CoreNLPDaemon.SEPARATOR
+                    + output.getAbsolutePath());
+    }
+
+    /*
+     * Send one request line and wait for the reply, however long the job
+     * takes.
+     * @throws ConnectException if no daemon is listening
+     */
+    public String send(String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            Writer out = new OutputStreamWriter(socket.getOutputStream(),
+                                                "UTF-8");
+            out.write(request + "\n");
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                                socket.getInputStream(), "UTF-8"));
+            String reply = in.readLine();
+            if (reply == null){
+                throw new IOException("CoreNLP daemon closed the connection "
+                                      + "without replying");
+            }
+            return reply;
+        } finally {
+            socket.close();
+        }
+    }
+}
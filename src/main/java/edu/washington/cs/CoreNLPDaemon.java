@@ -0,0 +1,178 @@
+/*
+ * Keeps a CoreNLPProcessor loaded and runs preprocessing and MultiR output
+ * jobs for CoreNLPClient, so only the first job pays for loading the models.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/*
+ * Jobs come in over a socket on the loopback interface, one connection per
+ * job: the client sends a single line, the command and its arguments
+ * separated by tabs, and gets a single line back once the job is done, OK
+ * and the time taken in ms, or ERROR and what went wrong. Commands:
+ *   preprocess <input> <output directory>  as CoreNLPProcessor.main
+ *   process <input> <output directory>     as MultiRCompiler.main
+ *   ping                                   check that the daemon is up
+ *   stop                                   shut the daemon down
+ * Paths are taken as given, so the client sends absolute ones. Jobs run one
+ * at a time, in the order they connect; the processor's own worker threads
+ * still preprocess articles in parallel.
+ *
+ * @param processor     Pipelines kept loaded between jobs
+ * @param jobs          Number of jobs run so far
+ */
+public class CoreNLPDaemon {
+    public static final int DEFAULT_PORT = 9191;
+    static final String PREPROCESS = "preprocess";
+    static final String PROCESS = "process";
+    static final String PING = "ping";
+    static final String STOP = "stop";
+    static final String OK = "OK";
+    static final String ERROR = "ERROR";
+    static final String SEPARATOR = "\t";
+    //how long a client has to send its job once connected
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+
+    private CoreNLPProcessor processor;
+    private int jobs = 0;
+    private boolean VERBOSE = false;
+
+    public CoreNLPDaemon(CoreNLPProcessor docProc){
+        processor = docProc;
+    }
+
+    public void setVerbose(boolean verbose){
+        VERBOSE = verbose;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        if (args.length > 0){
+            port = Integer.parseInt(args[0]);
+        }
+        CoreNLPProcessor docProc = new CoreNLPProcessor();
+        docProc.printLoadTimes(System.out);
+        if (args.length > 1){
+            docProc.setWorkers(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2){
+            docProc.setCache(new AnnotationCache(new File(args[2])));
+        }
+        CoreNLPDaemon daemon = new CoreNLPDaemon(docProc);
+        daemon.setVerbose(true);
+        daemon.serve(port);
+    }
+
+    /*
+     * Accept jobs until told to stop.
+     */
+    public void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50,
+                                               InetAddress.getByName(null));
+        System.out.println("CoreNLP daemon listening on port " + port);
+        try {
+            boolean running = true;
+            while (running){
+                Socket client = server.accept();
+                try {
+                    running = handle(client);
+                } catch (IOException e){
+                    //the client went away; the next one may not
+                    System.err.println("Lost client: " + e);
+                } finally {
+                    client.close();
+                }
+            }
+        } finally {
+            server.close();
+        }
+        System.out.println("CoreNLP daemon stopped after " + jobs + " jobs");
+    }
+
+    /*
+     * Read one job from the client, run it and reply.
+     * @return  false if the daemon should stop
+     */
+    private boolean handle(Socket client) throws IOException {
+        client.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                            client.getInputStream(), "UTF-8"));
+        Writer out = new OutputStreamWriter(client.getOutputStream(),
+                                            "UTF-8");
+        String request;
+        try {
+            request = in.readLine();
+        } catch (SocketTimeoutException e){
+            return true;
+        }
+        if (request == null){
+            return true;
+        }
+        String[] job = request.split(SEPARATOR, -1);
+        String reply;
+        boolean running = true;
+        if (job[0].equals(PING)){
+            reply = OK + " " + jobs + " jobs run";
+        } else if (job[0].equals(STOP)){
+            reply = OK + " stopping";
+            running = false;
+        } else if (job.length != 3){
+            reply = ERROR + " malformed job: " + request;
+        } else {
+            if (VERBOSE){
+                System.out.println("Job " + (jobs + 1) + ": " + job[0] + " "
+                                   + job[1] + " to " + job[2]);
+            }
+            long start = System.nanoTime();
+            try {
+                run(job[0], new File(job[1]), new File(job[2]));
+                reply = OK + " " + (System.nanoTime() - start) / 1000000
+                        + " ms";
+            } catch (Exception e){
+                e.printStackTrace(System.err);
+                reply = ERROR + " " + e;
+            }
+            jobs++;
+            if (VERBOSE){
+                System.out.println("Job " + jobs + ": " + reply);
+            }
+        }
+        out.write(reply.replace('\n', ' ') + "\n");
+        out.flush();
+        return running;
+    }
+
+    /*
+     * Run one job with the loaded processor, in the calling thread.
+     * @param command   PREPROCESS or PROCESS
+     */
+    public void run(String command, File input, File output)
+                    throws Exception {
+        if (!input.exists()){
+            throw new IOException("Input " + input + " does not exist");
+        }
+        if (!output.isDirectory() && !output.mkdirs()){
+            throw new IOException("Unable to create output directory "
+                                  + output);
+        }
+        if (command.equals(PREPROCESS)){
+            processor.resetStatistics();
+            processor.preprocess(input, output);
+        } else if (command.equals(PROCESS)){
+            new MultiRCompiler(processor).format(input, output);
+        } else {
+            throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+}
@@ -5,33 +5,153 @@
 
 package edu.washington.cs;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPOutputStream;
 
+import edu.stanford.nlp.ie.NERClassifierCombiner;
+import edu.stanford.nlp.ie.regexp.NumberSequenceClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.*;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.parser.common.ParserGrammar;
+import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
 import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphEdge;
 import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.*;
 import edu.stanford.nlp.pipeline.*;
+import edu.stanford.nlp.util.ArrayCoreMap;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.PropertiesUtils;
 
 
+/*
+ * @param ownPipeline   Full preprocessing pipeline of the constructing thread
+ * @param processor     ownPipeline followed by parser, built once
+ *                      processing starts, for process() on sentences
+ *                      without token annotations. A pipeline of its own,
+ *                      so preprocessing never parses.
+ * @param parserLoad    Parser model, loaded in the background from 
+ *                      construction on
+ * @param parser        Dependency parser for process()
+ * @param flatParser    Gives sentences over the parse limits the parse 
+ *                      CoreNLP falls back on, sharing parser's grammar
+ * @param parseTimer    Interrupts parses that take too long
+ * @param workers       Number of threads preprocessing articles, each with
+ *                      its own pipeline
+ * @param workerPool    Threads for workers > 1, started when first needed
+ * @param pipelines     Each thread's own pipelines, loaded on the thread's
+ *                      first article. CoreNLP annotators are not guaranteed
+ *                      to be thread safe, so pipelines are never shared 
+ *                      between threads.
+ * @param staged        Whether to tag only sentences of valid length
+ * @param batchSize     Number of paragraphs tagged by one pipeline call, 0 
+ *                      for a whole article
+ * @param cache         Annotations of earlier runs, or null
+ * @param columns       Token annotations of the sentence process() is on,
+ *                      reused for every sentence
+ * @param loadNanos     Load time of each model of processor, by annotator,
+ *                      in the order they finished
+ * @param startupNanos  Time until processor was ready
+ * @param annotatorTimes    Time spent in each annotator of every pipeline,
+ *                          by input file
+ * @param gazetteer     Finds mentions by alias instead of NER, or null
+ */
 public class CoreNLPProcessor implements DocProcessor{
+    private static final String PREPROCESS_ANNOTATORS 
+        = "tokenize, ssplit, pos, lemma, ner";
+    private static final String SPLIT_ANNOTATORS = "tokenize, ssplit";
+    private static final String[] TAG_ANNOTATORS = {"pos", "lemma", "ner"};
+    private static final int MIN_TOKENS = 6;
+    private static final int MAX_TOKENS = 51;
+    private static final int PARSE_MAX_LENGTH = 100000;
+    public static final int DEFAULT_PARSE_MAX_TOKENS = 100;
+    public static final long DEFAULT_PARSE_MAX_MILLIS = 20000;
+    //NER tag of mentions found by alias
+    public static final String GAZETTEER_TYPE = "ENTITY";
+    //what cached annotations depend on besides the text; change the version
+    //whenever annotation changes in a way these do not show, e.g., models
+    private static final String CACHE_VERSION = "corenlp-3.4/2";
+    private static final String PREPROCESS_CONFIG = CACHE_VERSION 
+        + " preprocess " + annotatorProperties(PREPROCESS_ANNOTATORS) 
+        + " tokens " + MIN_TOKENS + "-" + MAX_TOKENS;
+    private static final String PARSE_CONFIG = CACHE_VERSION 
+        + " parse maxlen " + PARSE_MAX_LENGTH;
+    private static final String PROCESS_CONFIG = CACHE_VERSION 
+        + " process " + annotatorProperties(PREPROCESS_ANNOTATORS) 
+        + " parse maxlen " + PARSE_MAX_LENGTH;
     private String outputExtension;
-    private StanfordCoreNLP processor;
+    private StanfordCoreNLP ownPipeline;
+    private AnnotationPipeline processor;
+    private Future<ParserGrammar> parserLoad;
+    private Annotator parser;
+    private Annotator flatParser;
+    private int parseMaxTokens = DEFAULT_PARSE_MAX_TOKENS;
+    private long parseMaxMillis = DEFAULT_PARSE_MAX_MILLIS;
+    private boolean parseFallback = true;
+    private boolean positiveOnly = true;
+    private ScheduledExecutorService parseTimer = null;
+    private long parsesCompleted = 0;
+    private long parsesTooLong = 0;
+    private long parsesTimedOut = 0;
+    private long parsesFlat = 0;
+    private long parsesSkipped = 0;
+    private long parsesAvoided = 0;
+    private long slowestParseNanos = 0;
     private boolean VERBOSE = false;
     private boolean XMLOUTPUT = false;
+    private boolean ANNOTATIONOUTPUT = false;
     private boolean pre = true;
     private File xmlOutputDir;
-    private GZIPOutputStream XMLOutput;
+    private File annotationOutputDir;
+    private NearDuplicateFilter duplicates = null;
+    private AtomicLong preprocessNanos = new AtomicLong();
+    private long preprocessChars = 0;
+    private int workers = 1;
+    private ExecutorService workerPool = null;
+    private ThreadLocal<Pipelines> pipelines;
+    private boolean staged = true;
+    private int batchSize = 1;
+    private AtomicLong sentencesSplit = new AtomicLong();
+    private AtomicLong sentencesBadLength = new AtomicLong();
+    private AtomicLong sentencesTagged = new AtomicLong();
+    private AtomicLong sentencesValid = new AtomicLong();
+    private AnnotationCache cache = null;
+    private TokenColumns columns = new TokenColumns();
+    private Map<String, Long> loadNanos = new LinkedHashMap<String, Long>();
+    private long startupNanos;
+    private AnnotatorTimes annotatorTimes = new AnnotatorTimes();
+    private AliasMatcher gazetteer = null;
+
+    /*
+     * Preprocessing pipelines of one thread: all annotators at once, or
+     * tokenizing and sentence splitting followed by tagging. They are built
+     * together, so they share annotators, and models are only loaded once.
+     */
+    private static class Pipelines {
+        StanfordCoreNLP full;
+        AnnotationPipeline split;
+        AnnotationPipeline tag;
+        Annotator pos;
+    }
 
     /*
      * Initialize with default output extension
@@ -42,22 +162,269 @@ public class CoreNLPProcessor implements DocProcessor{
 
     public CoreNLPProcessor(String outputExt){
         outputExtension = new String(outputExt);
+        long start = System.nanoTime();
+
+        //the parser is only needed by process(), so it is loaded while the
+        //preprocessing models load and are used
+        ExecutorService parserLoader = Utils.newDaemonPool(1, "parser-load");
+        parserLoad = parserLoader.submit(new Callable<ParserGrammar>(){
+            public ParserGrammar call(){
+                long start = System.nanoTime();
+                ParserGrammar grammar = ParserGrammar.loadModel(
+                                        LexicalizedParser.DEFAULT_PARSER_LOC);
+                grammar.setOptionFlags(grammar.defaultCoreNLPFlags());
+                synchronized (loadNanos){
+                    loadNanos.put("parse", System.nanoTime() - start);
+                }
+                return grammar;
+            }
+        });
+        parserLoader.shutdown();
 
         //set up processing so it will only need to be loaded once
         //preprocessing: sentence splitting, tokenization, NER
+        Pipelines own = newPipelines(loadNanos, annotatorTimes);
+        ownPipeline = own.full;
+        pipelines = new ThreadLocal<Pipelines>(){
+            protected Pipelines initialValue(){
+                return newPipelines(null, annotatorTimes);
+            }
+        };
+        pipelines.set(own);
+        startupNanos = System.nanoTime() - start;
+    }
+
+    /*
+     * New preprocessing pipelines with annotators of their own. 
+     * StanfordCoreNLP otherwise hands out the same annotator objects to every
+     * pipeline with the same settings, so the shared pool is cleared first.
+     * The pool builds annotators one at a time, so the tagging annotators 
+     * are built here instead, in threads of their own if there are cores to
+     * spare, and added to the pipelines.
+     * @param loadTimes     filled with the load time of each tagging 
+     *                      annotator, or null
+     * @param times         times every annotator of the pipelines
+     */
+    private static Pipelines newPipelines(final Map<String, Long> loadTimes,
+                                          AnnotatorTimes times){
+        final Properties properties 
+            = annotatorProperties(PREPROCESS_ANNOTATORS);
+        //loading is mostly deserialization, so more threads than cores 
+        //only slow each other down
+        int threads = Math.min(TAG_ANNOTATORS.length, 
+                               Runtime.getRuntime().availableProcessors());
+        ExecutorService loaders = Utils.newDaemonPool(threads, "model-load");
+        List<Future<Annotator>> taggers = new ArrayList<Future<Annotator>>();
+        for (final String name : TAG_ANNOTATORS){
+            taggers.add(loaders.submit(new Callable<Annotator>(){
+                public Annotator call() throws Exception {
+                    long start = System.nanoTime();
+                    Annotator annotator = newAnnotator(name, properties);
+                    if (loadTimes != null){
+                        synchronized (loadTimes){
+                            loadTimes.put(name, System.nanoTime() - start);
+                        }
+                    }
+                    return annotator;
+                }
+            }));
+        }
+        loaders.shutdown();
+
+        Annotator tokenizer;
+        Annotator splitter;
+        synchronized (CoreNLPProcessor.class){
+            StanfordCoreNLP.clearAnnotatorPool();
+            //only built for the annotators it leaves in the pool
+            new StanfordCoreNLP(annotatorProperties(SPLIT_ANNOTATORS));
+            tokenizer = StanfordCoreNLP.getExistingAnnotator("tokenize");
+            splitter = StanfordCoreNLP.getExistingAnnotator("ssplit");
+        }
+        Pipelines pipelines = new Pipelines();
+        //annotators are added here, so they can be timed
+        pipelines.full = new StanfordCoreNLP(annotatorProperties(""), false);
+        pipelines.split = new AnnotationPipeline();
+        for (Annotator annotator : new Annotator[]{
+                 times.wrap("tokenize", tokenizer), 
+                 times.wrap("ssplit", splitter)}){
+            pipelines.full.addAnnotator(annotator);
+            pipelines.split.addAnnotator(annotator);
+        }
+        //tokens and sentences come from split, not from this pipeline
+        pipelines.tag = new AnnotationPipeline();
+        for (int i = 0; i < TAG_ANNOTATORS.length; i++){
+            Annotator annotator = times.wrap(TAG_ANNOTATORS[i], 
+                                             await(taggers.get(i)));
+            pipelines.full.addAnnotator(annotator);
+            pipelines.tag.addAnnotator(annotator);
+            if (TAG_ANNOTATORS[i].equals("pos")){
+                pipelines.pos = annotator;
+            }
+        }
+        return pipelines;
+    }
+
+    /*
+     * A tagging annotator, built as StanfordCoreNLP builds it for the same
+     * properties.
+     */
+    private static Annotator newAnnotator(String name, Properties properties)
+                                          throws Exception {
+        if (name.equals("pos")){
+            return new POSTaggerAnnotator("pos", properties);
+        } else if (name.equals("lemma")){
+            return new MorphaAnnotator(false);
+        } else if (name.equals("ner")){
+            NERClassifierCombiner classifier = new NERClassifierCombiner(
+                PropertiesUtils.getBool(properties, 
+                                        "ner.applyNumericClassifiers", true),
+                PropertiesUtils.getBool(properties, "ner.useSUTime", 
+                    NumberSequenceClassifier.USE_SUTIME_DEFAULT),
+                properties, DefaultPaths.DEFAULT_NER_THREECLASS_MODEL,
+                DefaultPaths.DEFAULT_NER_MUC_MODEL, 
+                DefaultPaths.DEFAULT_NER_CONLL_MODEL);
+            return new NERCombinerAnnotator(classifier, false);
+        }
+        throw new IllegalArgumentException("Unknown annotator " + name);
+    }
+
+    /*
+     * Result of a model load, with what went wrong rethrown unchecked, as 
+     * StanfordCoreNLP does when it can not load a model.
+     */
+    private static <T> T await(Future<T> load){
+        try {
+            return load.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error){
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Properties annotatorProperties(String annotators){
         Properties properties = new Properties();
-        properties.put("annotators", "tokenize, ssplit, pos, lemma, ner");
-        processor = new StanfordCoreNLP(properties);
+        properties.put("annotators", annotators);
+        return properties;
     }
 
     public void setVerbose(boolean verbose){
         VERBOSE = verbose;
     }
 
+    /*
+     * Set whether to tokenize and split sentences first, and only run the
+     * POS tagger, lemmatizer and NER on sentences of valid length. Results
+     * are the same either way, since sentences of invalid length are thrown
+     * out regardless, except in the XML and annotation output, where those
+     * sentences are left untagged. Default true.
+     */
+    public void setStaged(boolean stage){
+        staged = stage;
+    }
+
+    /*
+     * Set how many paragraphs of an article have their sentences tagged by
+     * one call to the POS tagger, lemmatizer and NER, which saves the 
+     * pipeline's overhead per call. Paragraphs are still tokenized and split 
+     * one at a time, as tokenizing them together can change tokens at 
+     * paragraph boundaries, so sentences and their offsets are those of 
+     * their own paragraph either way. Results are the same; only memory 
+     * use goes up with the batch size, as the paragraphs of a batch are
+     * held until it is tagged. 0 to tag a whole article at once.
+     * Default 1: tag each paragraph by itself.
+     */
+    public void setBatchSize(int paragraphs){
+        batchSize = Math.max(paragraphs, 0);
+    }
+
+    /*
+     * Find mentions with the given alias matcher instead of NER: sentences
+     * are only tokenized and split in preprocessing, and mentions are the 
+     * aliases found in them, tagged GAZETTEER_TYPE, with the same filter of
+     * at least 2 mentions a sentence. Only aliases survive linking with 
+     * MapBasedEntityLinker anyway, so when linking with the same alias file
+     * this mostly saves the time NER takes. POS tagging is left to 
+     * process(), which only tags the sentences it parses. The annotation
+     * cache is not used in preprocessing. Null to use NER again.
+     */
+    public void setGazetteer(AliasMatcher matcher){
+        gazetteer = matcher;
+    }
+
+    /*
+     * Reuse annotations from the given cache, and store new ones in it, in 
+     * both preprocessing and processing. Paragraphs and sentences are looked
+     * up by their text and by the annotators and settings used, so the cache
+     * can be shared between runs and corpora. Null to not use a cache.
+     */
+    public void setCache(AnnotationCache annotationCache){
+        cache = annotationCache;
+    }
+
+    /*
+     * Set number of threads to preprocess articles with. Each thread loads 
+     * a complete pipeline of its own (about 1 GB with the default models), 
+     * so the number is limited by memory as well as cores; the pipeline of
+     * the calling thread stays loaded for process(). Articles are still
+     * returned in document order.
+     * Default 1: preprocess in the calling thread.
+     */
+    public void setWorkers(int threads){
+        if (workerPool != null){
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        workers = Math.max(threads, 1);
+    }
+
+    /*
+     * Set the budget for parsing one sentence in process(), so a few 
+     * pathological sentences (long lists, flattened tables) can not stall a
+     * file. Sentences with more tokens are not parsed at all, and a parse 
+     * that takes longer is interrupted. 0 for no limit.
+     * Default DEFAULT_PARSE_MAX_TOKENS tokens, DEFAULT_PARSE_MAX_MILLIS ms.
+     */
+    public void setParseLimits(int maxTokens, long maxMillis){
+        parseMaxTokens = maxTokens;
+        parseMaxMillis = maxMillis;
+    }
+
+    /*
+     * Set what happens to sentences over the parse limits: true to give 
+     * them CoreNLP's fallback parse (every word under one node, which takes
+     * no time), false to leave them out of the MultiR output. Default true.
+     */
+    public void setParseFallback(boolean fallback){
+        parseFallback = fallback;
+    }
+
+    /*
+     * Set whether process() leaves out sentences with no positive relation,
+     * without parsing them. MultiRCompiler only outputs sentences with at 
+     * least one positive relation (negatives are sampled in proportion to 
+     * them), so for it this only saves parsing, which is the most expensive
+     * step. Default true; false to get every sentence back from process().
+     */
+    public void setPositiveOnly(boolean positive){
+        positiveOnly = positive;
+    }
+
     public static void main(String[] args){
     	if ( args.length < 2 ){
             System.err.println("Required arguments: input file or directory, "
-                               + "output directory");
+                               + "output directory. Optional: number of "
+                               + "worker threads, annotation cache "
+                               + "directory (- for none), entity aliases "
+                               + "file to find mentions with instead of "
+                               + "NER.");
             System.err.println("Too few arguments supplied. Exiting.");
             System.exit(1);
         }
@@ -82,8 +449,18 @@ public class CoreNLPProcessor implements DocProcessor{
         }
 
     	File input = new File(args[0]);
-        DocProcessor docProc = new CoreNLPProcessor();
+        CoreNLPProcessor docProc = new CoreNLPProcessor();
+        docProc.printLoadTimes(System.out);
+        if (args.length > 2){
+            docProc.setWorkers(Integer.parseInt(args[2]));
+        }
         try {
+            if (args.length > 3 && !args[3].equals("-")){
+                docProc.setCache(new AnnotationCache(new File(args[3])));
+            }
+            if (args.length > 4){
+                docProc.setGazetteer(new AliasMatcher(new File(args[4])));
+            }
             docProc.preprocess(input, output); 
         } catch (Exception e) {
             e.printStackTrace(System.err);
@@ -92,198 +469,599 @@ public class CoreNLPProcessor implements DocProcessor{
 
     /*
      * Set whether to write the CoreNLP XML out. 
-     * Will be written to subdirectory of output directory called "xml"
+     * Will be written to subdirectory of output directory called "xml".
+     * Every sentence of each paragraph is written, including those of
+     * invalid length, which in staged mode only have tokens (see 
+     * setStaged).
      */
     public void setXMLOutput(boolean output){
         XMLOUTPUT = output;
     }
 
+    /*
+     * Set whether to write the CoreNLP annotations out in binary, which is
+     * smaller and faster to write than XML, and can be read back with 
+     * AnnotationReader, so later stages do not have to annotate again.
+     * Will be written to subdirectory of output directory called 
+     * "annotations". Holds the same sentences as the XML.
+     */
+    public void setAnnotationOutput(boolean output){
+        ANNOTATIONOUTPUT = output;
+    }
+
+    /*
+     * Skip articles that are near-duplicates of articles already seen, 
+     * e.g., resent wire stories. The same filter is used for every file, so
+     * duplicates are found across files. Pass a filter read back with
+     * NearDuplicateFilter.read() to also skip duplicates of earlier runs, or
+     * null to keep all articles.
+     */
+    public void setDuplicateFilter(NearDuplicateFilter filter){
+        duplicates = filter;
+    }
+
     /* 
      * Process one File at a time.
      * One File may contain multiple articles.
-     * Ensures all sentences are longer than 5 tokens, shorter than 50 tokens,
-     * end with punctuation, and have at least 2 named entities. 
+     * Articles are handed over by SAXGigawordConverter one at a time as they
+     * are parsed, so only articles with valid sentences are kept in memory.
+     * With more than one worker, articles are preprocessed in the worker
+     * threads, a few per worker at a time, and collected in document order.
+     * @see preprocess(AnnotatedDoc, StanfordCoreNLP)
      */
     public ArrayList<AnnotatedDoc> preprocess(File doc) throws Exception{
+        annotatorTimes.startFile(doc.getPath());
         //Strip docs of SGML
         //Note that SAXGigawordConverter has not performed sentence splitting
         //on text, so Sentences in AnnotatedDocs are actually paragraphs from
         //the original doc
         SAXGigawordConverter stripSGML = new SAXGigawordConverter();
         stripSGML.setVerbose(VERBOSE);
-        ArrayList<AnnotatedDoc> articles = stripSGML.convert(doc); 
+        //sentence offsets are used for MultiR output, so need to be true
+        //offsets into the original document
+        stripSGML.setTrackOffsets(true);
+        final ArrayList<AnnotatedDoc> articles = new ArrayList<AnnotatedDoc>();
+        if (workers > 1 && workerPool == null){
+            workerPool = Utils.newDaemonPool(workers, "corenlp");
+        }
+        //articles being preprocessed by workers, in document order
+        final ArrayDeque<Future<AnnotatedDoc>> pending 
+            = new ArrayDeque<Future<AnnotatedDoc>>();
+        final int maxPending = workers * 4;
+        try {
+            stripSGML.convert(doc, new AnnotatedDocConsumer(){
+                public void consume(AnnotatedDoc article) throws Exception {
+                    if (duplicates != null && duplicates.isDuplicate(article)){
+                        return;
+                    }
+                    for (Sentence paragraph : article.getSentences()){
+                        preprocessChars += paragraph.getSentence().length();
+                    }
+                    if (workerPool == null){
+                        if (timedPreprocess(article, pipelines.get())){
+                            articles.add(article);
+                        }
+                        return;
+                    }
+                    final AnnotatedDoc submitted = article;
+                    pending.add(workerPool.submit(new Callable<AnnotatedDoc>(){
+                        public AnnotatedDoc call() throws Exception {
+                            return timedPreprocess(submitted, pipelines.get())
+                                   ? submitted : null;
+                        }
+                    }));
+                    while (pending.size() >= maxPending){
+                        collect(pending.poll(), articles);
+                    }
+                }
+            }); 
+            while (!pending.isEmpty()){
+                collect(pending.poll(), articles);
+            }
+        } finally {
+            for (Future<AnnotatedDoc> future : pending){
+                future.cancel(true);
+            }
+        }
         if (VERBOSE){
-            System.out.println(articles.size() + " articles found.");
+            System.out.println(articles.size() + " valid articles found.");
+            printStatistics(System.out);
+        }
+        if (duplicates != null){
+            //time saved is estimated from what the articles that were 
+            //processed cost; it does not include parsing in process()
+            duplicates.report(System.out, (double) preprocessNanos.get()
+                                          / Math.max(1, preprocessChars));
+        }
+        if (cache != null){
+            cache.report(System.out);
         }
+        annotatorTimes.printFile(System.out);
+        return articles;
+    }
 
-        Iterator<AnnotatedDoc> articleIter = articles.iterator(); 
+    /*
+     * Wait for an article from a worker, and keep it if it is valid.
+     */
+    private void collect(Future<AnnotatedDoc> future, 
+                         ArrayList<AnnotatedDoc> articles) throws Exception {
         AnnotatedDoc article;
-        //for each document found in File
-        while (articleIter.hasNext()){
-            article = articleIter.next();
+        try {
+            article = future.get();
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof Exception){
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        if (article != null){
+            articles.add(article);
+        }
+    }
 
-            //prep to output all the document's good sentences
+    private boolean timedPreprocess(AnnotatedDoc article, 
+                                    Pipelines pipeline) 
+                                    throws Exception {
+        long start = System.nanoTime();
+        boolean valid = preprocess(article, pipeline);
+        preprocessNanos.addAndGet(System.nanoTime() - start);
+        return valid;
+    }
+
+    /* 
+     * Process one article.
+     * Ensures all sentences are longer than 5 tokens, shorter than 50 tokens,
+     * end with punctuation, and have at least 2 named entities. 
+     * @param pipeline  Pipelines to annotate with, only ever used by the 
+     *                  calling thread
+     * @return  true if the article has at least one valid sentence
+     */
+    private boolean preprocess(AnnotatedDoc article, Pipelines pipeline)
+                               throws Exception{
+        //prep to output all the document's good sentences
+        GZIPOutputStream XMLOutput = null;
+        if (XMLOUTPUT){
+            String xmlName = new String(article.getID() + ".xml.gz");
+            XMLOutput = new GZIPOutputStream(new FileOutputStream(
+                        new File(xmlOutputDir, xmlName)));
+        }
+        AnnotationWriter annotationOutput = null;
+        if (ANNOTATIONOUTPUT){
+            String annotationName = article.getID() + ".ann.gz";
+            annotationOutput = new AnnotationWriter(
+                               new BufferedOutputStream(
+                               new GZIPOutputStream(new FileOutputStream(
+                               new File(annotationOutputDir, 
+                                        annotationName)))));
+        }
+
+        //split sentences and tokenize each paragraph, and tag the 
+        //sentences with a valid number of tokens
+        List<Annotation> paragraphs = new ArrayList<Annotation>();
+        List<List<CoreMap>> validSentences = annotate(article, pipeline,
+                                                      paragraphs);
+
+        ArrayList<Sentence> newSentences = new ArrayList<Sentence>();
+        Iterator<Sentence> paragraphIter = article.iterator(); 
+        Sentence paragraphSentence;
+        int paragraphNum = 0;
+        //separate article paragraphs into sentences
+        while (paragraphIter.hasNext()){
+            paragraphSentence = paragraphIter.next();
+            Annotation paragraph = paragraphs.get(paragraphNum);
+            List<CoreMap> sentences = validSentences.get(paragraphNum);
+            paragraphNum++;
+
+            //check that each sentence is well-formed
+            for(CoreMap sentence : sentences) {
+                List<CoreLabel> tokens = 
+                    sentence.get(TokensAnnotation.class);
+                int tokenCount = tokens.size();
+                
+                int sentenceStart = sentence.get(
+                                     CharacterOffsetBeginAnnotation.class);
+                int sentenceEnd = sentence.get(
+                                        CharacterOffsetEndAnnotation.class);
+                //create new sentence to add Mentions to
+                //CharacterOffsetBegin/EndAnnotation is relative to String
+                //that was annotated, so need to map it to the paragraph's
+                //offsets in the source, which differ after any entities
+                Sentence newSentence = new Sentence(sentence.toString(), 
+                    paragraphSentence.sourceOffset(sentenceStart),
+                    paragraphSentence.sourceOffset(sentenceEnd));
+                //check that there are at least 2 entity mentions
+                int entCount = gazetteer != null 
+                    ? addAliasMentions(newSentence, tokens, sentenceStart)
+                    : addEntityMentions(newSentence, tokens, sentenceStart);
+                if (entCount < 2){
+                    continue;
+                }
+                //keep token annotations, so process() only has to parse
+                String[] words = new String[tokenCount];
+                int[] starts = new int[tokenCount];
+                int[] ends = new int[tokenCount];
+                String[] tags = new String[tokenCount];
+                String[] labels = new String[tokenCount];
+                for (int i = 0; i < tokenCount; i++){
+                    CoreLabel token = tokens.get(i);
+                    words[i] = token.get(TextAnnotation.class);
+                    starts[i] = token.beginPosition() - sentenceStart;
+                    ends[i] = token.endPosition() - sentenceStart;
+                    tags[i] = token.get(PartOfSpeechAnnotation.class);
+                    labels[i] = token.get(NamedEntityTagAnnotation.class);
+                }
+                newSentence.setTokenAnnotations(words, starts, ends, tags, 
+                                                labels);
+                newSentences.add(newSentence);
+                sentencesValid.incrementAndGet();
+            } // end for sentence in paragraph loop
+            //remove old paragraph -- it will be replaced with newSentences
+            paragraphIter.remove();
+
+            //print paragraph xml to xml output
             if (XMLOUTPUT){
-                String xmlName = new String(article.getID() + ".xml.gz");
-                XMLOutput = new GZIPOutputStream(new FileOutputStream(
-                            new File(xmlOutputDir, xmlName)));
-            }
-
-            ArrayList<Sentence> newSentences = new ArrayList<Sentence>();
-            Iterator<Sentence> paragraphIter = article.iterator(); 
-            Sentence paragraphSentence;
-            //separate article paragraphs into sentences
-            while (paragraphIter.hasNext()){
-                paragraphSentence = paragraphIter.next();
-                String paragraphString = paragraphSentence.getSentence(); 
-                int paragraphStartOffset = paragraphSentence.getStart(); 
-
-                //split sentences and tokenize each paragraph
-                Annotation paragraph = new Annotation(paragraphString); 
-                processor.annotate(paragraph);
-                List<CoreMap> sentences = paragraph.get(
-                    SentencesAnnotation.class);
-
-                //check that each sentence is well-formed
-                //eg, 6 <= words >= 50
-                for(CoreMap sentence : sentences) {
-                    //check number of tokens
-                    List<CoreLabel> tokens = 
-                        sentence.get(TokensAnnotation.class);
-                    int tokenCount = tokens.size();
-                    if (tokenCount < 6){
-                        if (VERBOSE){
-                            System.out.println("Removing invalid sentence "
-                                    + "from " + article.getID() 
-                                    + " (too few tokens)");
-                        }
-                        continue;
-                    } else if (tokenCount > 51){
-                        if (VERBOSE){
-                            System.out.println("Removing invalid sentence "
-                                    + "from " + article.getID() 
-                                    + " (too many tokens)");
-                        }
-                        continue;
-                    } 
-                    
-                    int sentenceStart = sentence.get(
-                                         CharacterOffsetBeginAnnotation.class);
-                    int sentenceEnd = sentence.get(
-                                            CharacterOffsetEndAnnotation.class);
-                    //create new sentence to add Mentions to
-                    //CharacterOffsetBegin/EndAnnotation is relative to String
-                    //that was annotated, so need to add to paragraph's offset
-                    Sentence newSentence = new Sentence(sentence.toString(), 
-                                                        sentenceStart
-                                                        + paragraphStartOffset,
-                                                        sentenceEnd
-                                                        + paragraphStartOffset);
-                    //check that there are at least 2 entity mentions
-                    int entCount = 0;
-                    //build up entity strings by concatenating adjacent tokens
-                    //of same entity type 
-                    //note that this approach will not capture (_ of the _)
-                    StringBuilder entityBuilder = new StringBuilder();
-                    String entityType = "O";
-                    int beginPosition = 0;
-                    int endPosition = 0;
-
-                    for (CoreLabel token : tokens){
-                        String entity = token.get(
-                            NamedEntityTagAnnotation.class);
-                        if (entity.equals("LOCATION") 
-                            || entity.equals("ORGANIZATION") 
-                         // || entity.equals("DATE") //ignore DATES for now
-                            || entity.equals("PERSON")){
-                            //start a new entity string
-                            if (entityBuilder.length() == 0){
-                                //begin/endPosition is relative to String
-                                //that was annotated, but need relative to
-                                //current sentence
-                                //so need to add to paragraph's offset
-                                beginPosition = token.beginPosition() 
-                                                - sentenceStart;
-                                endPosition = token.endPosition()
-                                              - sentenceStart;
-                                entityBuilder.append(token.toString());
-                                entityType = new String(entity);
-                            } else if (entity.equals(entityType)){
-                                //combine spans that are the same NER type 
-                                entityBuilder.append(token.before());
-                                entityBuilder.append(token.toString());
-                                endPosition = token.endPosition()
-                                              - sentenceStart;
-                            } else {
-                                //different NER type, finish ongoing string
-                                String mention = entityBuilder.toString();
-                                if (VERBOSE){
-                                    System.out.println("Entity found: " 
-                                        + entityType + " " + mention); 
-                                }
-                                newSentence.addMention(mention, 
-                                                       beginPosition, 
-                                                       endPosition,
-                                                       entityType);
-                                entCount++;
-
-                                //start new one with new type
-                                entityBuilder.setLength(0);
-                                entityBuilder.append(token.toString());
-                                beginPosition = token.beginPosition()
-                                                - sentenceStart;
-                                endPosition = token.endPosition()
-                                                - sentenceStart;
-                                entityType = new String(entity);
-                            }
-                        //if not a special NER type, finish building entity
-                        //note that this approach will not capture (_ of the _)
-                        } else if (entityBuilder.length() > 0) {
-                            String mention = entityBuilder.toString();
-                            if (VERBOSE){
-                                System.out.println("Entity found: " 
-                                    + entityType + " " + mention); 
-                            }
-                            newSentence.addMention(mention, 
-                                                   beginPosition, 
-                                                   endPosition,
-                                                   entityType);
-                            entCount++;
-                            entityBuilder.setLength(0);
-                        }
-                    }
-                    if (entCount < 2){
-                        continue;
+                pipeline.full.xmlPrint(paragraph, XMLOutput);
+            }
+            if (ANNOTATIONOUTPUT){
+                annotationOutput.write(paragraph);
+            }
+        } //end paragraph in article loop
+        //add new, improved sentences to article
+        for (Sentence newSentence : newSentences){
+            article.addSentence(newSentence);
+        }
+        //close XML out
+        if (XMLOUTPUT){
+            XMLOutput.close();
+        }
+        if (ANNOTATIONOUTPUT){
+            annotationOutput.close();
+        }
+        
+        //if there is at least one valid sentence in the doc, store it
+        if (article.size() < 1){
+            if (VERBOSE) {
+                System.out.println("Removing document " + article.getID()
+                                   + " (no valid sentences)");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Add the mentions NER found in a sentence to newSentence.
+     * @return  number of mentions found
+     */
+    private int addEntityMentions(Sentence newSentence, 
+                                  List<CoreLabel> tokens, int sentenceStart){
+        int entCount = 0;
+        //build up entity strings by concatenating adjacent tokens
+        //of same entity type 
+        //note that this approach will not capture (_ of the _)
+        StringBuilder entityBuilder = new StringBuilder();
+        String entityType = "O";
+        int beginPosition = 0;
+        int endPosition = 0;
+
+        for (CoreLabel token : tokens){
+            String entity = token.get(
+                NamedEntityTagAnnotation.class);
+            if (entity.equals("LOCATION") 
+                || entity.equals("ORGANIZATION") 
+             // || entity.equals("DATE") //ignore DATES for now
+                || entity.equals("PERSON")){
+                //start a new entity string
+                if (entityBuilder.length() == 0){
+                    //begin/endPosition is relative to String
+                    //that was annotated, but need relative to
+                    //current sentence
+                    //so need to add to paragraph's offset
+                    beginPosition = token.beginPosition() 
+                                    - sentenceStart;
+                    endPosition = token.endPosition()
+                                  - sentenceStart;
+                    entityBuilder.append(token.toString());
+                    entityType = new String(entity);
+                } else if (entity.equals(entityType)){
+                    //combine spans that are the same NER type 
+                    entityBuilder.append(token.before());
+                    entityBuilder.append(token.toString());
+                    endPosition = token.endPosition()
+                                  - sentenceStart;
+                } else {
+                    //different NER type, finish ongoing string
+                    String mention = entityBuilder.toString();
+                    if (VERBOSE){
+                        System.out.println("Entity found: " 
+                            + entityType + " " + mention); 
                     }
-                    newSentences.add(newSentence);
-                } // end for sentence in paragraph loop
-                //remove old paragraph -- it will be replaced with newSentences
-                paragraphIter.remove();
-
-                //print paragraph xml to xml output
-                if (XMLOUTPUT){
-                    processor.xmlPrint(paragraph, XMLOutput);
+                    newSentence.addMention(mention, 
+                                           beginPosition, 
+                                           endPosition,
+                                           entityType);
+                    entCount++;
+
+                    //start new one with new type
+                    entityBuilder.setLength(0);
+                    entityBuilder.append(token.toString());
+                    beginPosition = token.beginPosition()
+                                    - sentenceStart;
+                    endPosition = token.endPosition()
+                                    - sentenceStart;
+                    entityType = new String(entity);
                 }
-            } //end paragraph in article loop
-            //add new, improved sentences to article
-            for (Sentence newSentence : newSentences){
-                article.addSentence(newSentence);
+            //if not a special NER type, finish building entity
+            //note that this approach will not capture (_ of the _)
+            } else if (entityBuilder.length() > 0) {
+                String mention = entityBuilder.toString();
+                if (VERBOSE){
+                    System.out.println("Entity found: " 
+                        + entityType + " " + mention); 
+                }
+                newSentence.addMention(mention, 
+                                       beginPosition, 
+                                       endPosition,
+                                       entityType);
+                entCount++;
+                entityBuilder.setLength(0);
             }
-            //close XML out
-            if (XMLOUTPUT){
-                XMLOutput.close();
-            }
-            
-            //if there is at least one valid sentence in the doc, store it
-            if (article.size() < 0){
-                if (VERBOSE) {
-                    System.out.println("Removing document " + article.getID()
-                                       + " (no valid sentences)");
+        }
+        return entCount;
+    }
+
+    /*
+     * Add the aliases found in a sentence to newSentence as mentions, and
+     * tag the tokens of each with GAZETTEER_TYPE, the others with "O".
+     * @return  number of mentions found
+     */
+    private int addAliasMentions(Sentence newSentence, 
+                                 List<CoreLabel> tokens, int sentenceStart){
+        int[] starts = new int[tokens.size()];
+        int[] ends = new int[tokens.size()];
+        for (int i = 0; i < tokens.size(); i++){
+            starts[i] = tokens.get(i).beginPosition() - sentenceStart;
+            ends[i] = tokens.get(i).endPosition() - sentenceStart;
+        }
+        List<AliasMatcher.Match> matches = gazetteer.find(
+                                           newSentence.getSentence(), 
+                                           starts, ends);
+        int token = 0;
+        for (AliasMatcher.Match match : matches){
+            if (VERBOSE){
+                System.out.println("Alias found: " + match.alias);
+            }
+            newSentence.addMention(match.alias, match.start, match.end,
+                                   GAZETTEER_TYPE);
+            for (; token < tokens.size() && starts[token] < match.end; 
+                 token++){
+                tokens.get(token).setNER(starts[token] < match.start ? "O"
+                                         : GAZETTEER_TYPE);
+            }
+        }
+        for (; token < tokens.size(); token++){
+            tokens.get(token).setNER("O");
+        }
+        return matches.size();
+    }
+
+    /*
+     * Annotate the paragraphs of an article, or get them from the cache, 
+     * tagging batchSize paragraphs at a time.
+     * @param paragraphs    filled with the annotation of each paragraph
+     * @return  sentences of valid length of each paragraph, fully annotated
+     */
+    private List<List<CoreMap>> annotate(AnnotatedDoc article, 
+                                         Pipelines pipeline,
+                                         List<Annotation> paragraphs)
+                                         throws IOException {
+        List<List<CoreMap>> valid = new ArrayList<List<CoreMap>>();
+        List<String> keys = new ArrayList<String>();
+        //paragraphs split but not yet tagged, by number
+        List<Integer> batch = new ArrayList<Integer>();
+        for (Sentence paragraphSentence : article.getSentences()){
+            String paragraphString = paragraphSentence.getSentence();
+            Annotation paragraph = null;
+            String key = null;
+            if (gazetteer != null){
+                //nothing to tag; mentions are found by alias
+                paragraph = new Annotation(paragraphString);
+                pipeline.split.annotate(paragraph);
+                paragraphs.add(paragraph);
+                valid.add(validSentences(paragraph, article.getID()));
+                continue;
+            }
+            if (cache != null){
+                //staged mode leaves sentences of invalid length untagged
+                key = AnnotationCache.key(staged ? PREPROCESS_CONFIG 
+                                                   + " staged"
+                                                 : PREPROCESS_CONFIG,
+                                          paragraphString);
+                paragraph = cache.get(key);
+            }
+            keys.add(key);
+            if (paragraph != null){
+                //the whole split paragraph was cached, so its sentences are
+                //counted and output as if it had just been annotated
+                paragraphs.add(paragraph);
+                valid.add(validSentences(paragraph, article.getID()));
+                continue;
+            }
+            paragraph = new Annotation(paragraphString);
+            paragraphs.add(paragraph);
+            if (batchSize == 1){
+                valid.add(annotate(paragraph, pipeline, article.getID()));
+                cacheParagraph(key, paragraph);
+                continue;
+            }
+            pipeline.split.annotate(paragraph);
+            valid.add(validSentences(paragraph, article.getID()));
+            batch.add(paragraphs.size() - 1);
+            if (batch.size() == batchSize){
+                tag(batch, paragraphs, valid, keys, pipeline);
+            }
+        }
+        if (!batch.isEmpty()){
+            tag(batch, paragraphs, valid, keys, pipeline);
+        }
+        return valid;
+    }
+
+    /*
+     * Tag the sentences of a batch of split paragraphs with one call: only
+     * those of valid length in staged mode, all of them otherwise. Tokens
+     * are tagged in place, so each paragraph keeps its own sentences, with
+     * offsets into its own text. Empties the batch.
+     * @param batch     numbers of the paragraphs to tag
+     */
+    private void tag(List<Integer> batch, List<Annotation> paragraphs,
+                     List<List<CoreMap>> valid, List<String> keys,
+                     Pipelines pipeline) throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<CoreLabel> tokens = new ArrayList<CoreLabel>();
+        List<CoreMap> sentences = new ArrayList<CoreMap>();
+        for (int i : batch){
+            Annotation paragraph = paragraphs.get(i);
+            if (text.length() > 0){
+                text.append("\n\n");
+            }
+            text.append(paragraph.get(TextAnnotation.class));
+            sentences.addAll(staged ? valid.get(i) 
+                             : paragraph.get(SentencesAnnotation.class));
+        }
+        for (CoreMap sentence : sentences){
+            tokens.addAll(sentence.get(TokensAnnotation.class));
+        }
+        if (!sentences.isEmpty()){
+            Annotation batched = new Annotation(text.toString());
+            batched.set(TokensAnnotation.class, tokens);
+            batched.set(SentencesAnnotation.class, sentences);
+            pipeline.tag.annotate(batched);
+            sentencesTagged.addAndGet(sentences.size());
+        }
+        for (int i : batch){
+            cacheParagraph(keys.get(i), paragraphs.get(i));
+        }
+        batch.clear();
+    }
+
+    /*
+     * Annotate paragraph, leaving out sentences with too few or too many
+     * tokens. 
+     * In staged mode, sentences are split first and only those of valid 
+     * length are tagged; the others are left with tokens only.
+     * @return  sentences of valid length, fully annotated
+     */
+    private List<CoreMap> annotate(Annotation paragraph, Pipelines pipeline,
+                                   String docID){
+        (staged ? pipeline.split : pipeline.full).annotate(paragraph);
+        List<CoreMap> valid = validSentences(paragraph, docID);
+        if (!staged){
+            sentencesTagged.addAndGet(paragraph.get(
+                                      SentencesAnnotation.class).size());
+        } else if (!valid.isEmpty()){
+            //tag the valid sentences' tokens in place 
+            List<CoreLabel> validTokens = new ArrayList<CoreLabel>();
+            for (CoreMap sentence : valid){
+                validTokens.addAll(sentence.get(TokensAnnotation.class));
+            }
+            Annotation survivors = new Annotation(paragraph.get(
+                                                  TextAnnotation.class));
+            survivors.set(TokensAnnotation.class, validTokens);
+            survivors.set(SentencesAnnotation.class, valid);
+            pipeline.tag.annotate(survivors);
+            sentencesTagged.addAndGet(valid.size());
+        }
+        return valid;
+    }
+
+    /*
+     * Sentences of a split paragraph with a valid number of tokens.
+     */
+    private List<CoreMap> validSentences(Annotation paragraph, String docID){
+        List<CoreMap> sentences = paragraph.get(SentencesAnnotation.class);
+        List<CoreMap> valid = new ArrayList<CoreMap>(sentences.size());
+        for (CoreMap sentence : sentences){
+            List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+            if (tokens.size() < MIN_TOKENS){
+                if (VERBOSE){
+                    System.out.println("Removing invalid sentence from " 
+                                       + docID + " (too few tokens)");
                 }
-                articleIter.remove();
+            } else if (tokens.size() > MAX_TOKENS){
+                if (VERBOSE){
+                    System.out.println("Removing invalid sentence from " 
+                                       + docID + " (too many tokens)");
+                }
+            } else {
+                valid.add(sentence);
             }
-        } //end document in array loop
-        return articles;
+        }
+        sentencesSplit.addAndGet(sentences.size());
+        sentencesBadLength.addAndGet(sentences.size() - valid.size());
+        return valid;
+    }
+
+    /*
+     * Cache a newly annotated paragraph with all of its sentences, including
+     * those of invalid length, which in staged mode only have tokens.
+     * @param key   cache key of the paragraph, null if there is no cache
+     */
+    private void cacheParagraph(String key, Annotation paragraph)
+                                throws IOException {
+        if (cache != null){
+            cache.put(key, paragraph);
+        }
+    }
+
+    /*
+     * Print how many sentences preprocessing has seen, and how many were
+     * thrown out before and after tagging. Sentences of cached paragraphs
+     * are counted as split and checked for length, but not tagged again.
+     */
+    public void printStatistics(PrintStream out){
+        long split = sentencesSplit.get();
+        out.println(String.format("Sentences: %d split, %d of invalid length "
+                    + "(%.1f%%), %d tagged, %d valid", split, 
+                    sentencesBadLength.get(), 
+                    100.0 * sentencesBadLength.get() / Math.max(1, split),
+                    sentencesTagged.get(), sentencesValid.get()));
+    }
+
+    /*
+     * Print how long each model of the calling thread's pipelines took to
+     * load, and how long until they were ready. Models load at the same 
+     * time, so the wait is about the slowest load, not the sum. The parser
+     * is listed once it has loaded.
+     */
+    public void printLoadTimes(PrintStream out){
+        long total = 0;
+        synchronized (loadNanos){
+            for (Map.Entry<String, Long> load : loadNanos.entrySet()){
+                out.println(String.format("Loaded %-6s %6.1f s", 
+                            load.getKey(), load.getValue() / 1e9));
+                total += load.getValue();
+            }
+        }
+        out.println(String.format("Pipelines ready after %.1f s (%.1f s of "
+                    + "model loading)", startupNanos / 1e9, total / 1e9));
+    }
+
+    /*
+     * Print the wall and CPU time spent in each annotator, with tokens and
+     * sentences annotated per second, for the whole run so far and for 
+     * each input file. The counts for a file are also printed at the end of
+     * preprocess(File) and process(File).
+     */
+    public void printAnnotatorTimes(PrintStream out){
+        annotatorTimes.print(out);
+    }
+
+    public void resetStatistics(){
+        sentencesSplit.set(0);
+        sentencesBadLength.set(0);
+        sentencesTagged.set(0);
+        sentencesValid.set(0);
     }
 
     /* 
@@ -299,6 +1077,16 @@ public class CoreNLPProcessor implements DocProcessor{
                 System.out.println("Outputting XML to " + xmlOutputDir);
             }
         }
+        if (ANNOTATIONOUTPUT){
+            annotationOutputDir = new File(output, "annotations");
+            if (!annotationOutputDir.exists()){
+                annotationOutputDir.mkdir();
+            }
+            if (VERBOSE){
+                System.out.println("Outputting annotations to " 
+                                   + annotationOutputDir);
+            }
+        }
         ArrayList<AnnotatedDoc> docs = preprocess(input);
         int validDocs = docs.size();
         if (validDocs < 1) {
@@ -321,7 +1109,18 @@ public class CoreNLPProcessor implements DocProcessor{
                 System.out.println("Prepping annotator for MultiR processing");
             }
             //add dependency parse annotator
-            processor.addAnnotator(new ParserAnnotator(false, 100000));
+            ParserGrammar grammar = await(parserLoad);
+            parser = annotatorTimes.wrap("parse", new ParserAnnotator(
+                                         grammar, false, PARSE_MAX_LENGTH));
+            //parses only sentences shorter than 1 token, i.e., none
+            flatParser = annotatorTimes.wrap("parse (fallback)", 
+                                             new ParserAnnotator(grammar, 
+                                                                 false, 1));
+            //ownPipeline is left as it is, since it goes on preprocessing
+            //on the constructing thread
+            processor = new AnnotationPipeline();
+            processor.addAnnotator(ownPipeline);
+            processor.addAnnotator(parser);
 
             //if possible, find way to replace ssplit annotator with 
             //nonsplitting, since sentences should already be split
@@ -341,6 +1140,8 @@ public class CoreNLPProcessor implements DocProcessor{
      */
     public ArrayList<MultiRInstance> process(File input) throws Exception {
         setProcessing();
+        resetParseStatistics();
+        annotatorTimes.startFile(input.getPath());
         ArrayList<MultiRInstance> multiR = new ArrayList<MultiRInstance>();
         try { 
             if (VERBOSE){
@@ -364,11 +1165,264 @@ public class CoreNLPProcessor implements DocProcessor{
             e.printStackTrace();
             System.out.println("Encountered Exception");
         }
+        if (cache != null){
+            cache.report(System.out);
+        }
+        printParseStatistics(System.out);
+        annotatorTimes.printFile(System.out);
         return multiR;
     }
 
+    /*
+     * Print what became of the sentences parsed by the last call to 
+     * process(File): parsed in time, over the length limit, or interrupted,
+     * and of those, how many got the fallback parse and how many were left 
+     * out. Cached parses are not counted. Sentences left out for having no
+     * positive relation are counted as avoided parses.
+     */
+    public void printParseStatistics(PrintStream out){
+        out.println(String.format("Parses: %d completed, %d too long, %d "
+                    + "timed out (%d given fallback parse, %d skipped), "
+                    + "slowest %.1f s; %d avoided (no positive relation)", 
+                    parsesCompleted, parsesTooLong, parsesTimedOut, 
+                    parsesFlat, parsesSkipped, slowestParseNanos / 1e9,
+                    parsesAvoided));
+    }
+
+    private void resetParseStatistics(){
+        parsesCompleted = 0;
+        parsesTooLong = 0;
+        parsesTimedOut = 0;
+        parsesFlat = 0;
+        parsesSkipped = 0;
+        parsesAvoided = 0;
+        slowestParseNanos = 0;
+    }
+
+    /*
+     * Interrupts the parsing thread when the parse budget runs out, unless
+     * the parse has finished by then. 
+     */
+    private static class ParseDeadline implements Runnable {
+        private Thread thread;
+        private boolean finished = false;
+        private boolean expired = false;
+
+        ParseDeadline(Thread parsing){
+            thread = parsing;
+        }
+
+        public synchronized void run(){
+            if (!finished){
+                expired = true;
+                thread.interrupt();
+            }
+        }
+
+        /*
+         * Called by the parsing thread when done. Clears the interrupt if 
+         * the parser did not see it.
+         * @return  whether the deadline expired
+         */
+        synchronized boolean finish(){
+            finished = true;
+            if (expired){
+                Thread.interrupted();
+            }
+            return expired;
+        }
+    }
+
+    /*
+     * Parse one sentence, or get its parse from the cache, within the parse
+     * limits. Only parses that completed in time are cached.
+     * @return  the annotated sentence, or null if it is over the limits and
+     *          there is no fallback
+     */
+    private Annotation parse(Sentence docSentence) throws Exception {
+        boolean tokenized = docSentence.hasTokenAnnotations();
+        String key = null;
+        if (cache != null){
+            key = tokenized ? AnnotationCache.key(PARSE_CONFIG, 
+                                                  tokenKey(docSentence))
+                            : AnnotationCache.key(PROCESS_CONFIG, 
+                                                  docSentence.getSentence());
+            Annotation annotation = cache.get(key);
+            if (annotation != null){
+                return annotation;
+            }
+        }
+        if (tokenized && parseMaxTokens > 0 
+            && docSentence.getTokens().length > parseMaxTokens){
+            parsesTooLong++;
+            if (VERBOSE){
+                System.out.println("Not parsing sentence of " 
+                                   + docSentence.getTokens().length 
+                                   + " tokens");
+            }
+            return fallback(docSentence, null);
+        }
+
+        ParseDeadline deadline = null;
+        ScheduledFuture<?> timeout = null;
+        if (parseMaxMillis > 0){
+            if (parseTimer == null){
+                parseTimer = Utils.newDaemonTimer("parse-timeout");
+            }
+            deadline = new ParseDeadline(Thread.currentThread());
+            timeout = parseTimer.schedule(deadline, parseMaxMillis, 
+                                          TimeUnit.MILLISECONDS);
+        }
+        long start = System.nanoTime();
+        Annotation annotation = null;
+        RuntimeException failure = null;
+        boolean expired;
+        try {
+            if (tokenized){
+                //already tokenized and tagged in preprocessing
+                annotation = toTaggedAnnotation(docSentence);
+                parser.annotate(annotation);
+            } else {
+                //preprocessed before token annotations were kept
+                annotation = new Annotation(docSentence.getSentence());
+                processor.annotate(annotation);
+            }
+        } catch (RuntimeException e){
+            //the parser falls back by itself when interrupted, but the 
+            //interrupt may also surface elsewhere, e.g., as a 
+            //RuntimeInterruptedException or a wrapped InterruptedException
+            failure = e;
+            annotation = null;
+        } finally {
+            expired = deadline != null && deadline.finish();
+            if (timeout != null){
+                timeout.cancel(false);
+            }
+        }
+        if (failure != null && !expired){
+            throw failure;
+        }
+        slowestParseNanos = Math.max(slowestParseNanos, 
+                                     System.nanoTime() - start);
+        if (expired){
+            parsesTimedOut++;
+            if (VERBOSE){
+                System.out.println("Parse timed out after " + parseMaxMillis
+                                   + " ms: " + docSentence.getSentence());
+            }
+            return fallback(docSentence, annotation);
+        }
+        parsesCompleted++;
+        if (cache != null){
+            cache.put(key, annotation);
+        }
+        return annotation;
+    }
+
+    /*
+     * Whether any entity pair of the sentence has a relation, i.e., whether
+     * it is a positive training example.
+     */
+    private static boolean hasPositiveRelation(Sentence docSentence){
+        for (RelationAnnotation relation : docSentence.getRelations()){
+            if (relation.relations != null && relation.relations.size() > 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * @param flat  Annotation already given the fallback parse, or null
+     * @return  sentence with the fallback parse, or null if not falling back
+     */
+    private Annotation fallback(Sentence docSentence, Annotation flat){
+        if (parseFallback && flat == null && docSentence.hasTokenAnnotations()){
+            flat = toTaggedAnnotation(docSentence);
+            flatParser.annotate(flat);
+        }
+        if (!parseFallback || flat == null){
+            parsesSkipped++;
+            return null;
+        }
+        parsesFlat++;
+        return flat;
+    }
+
+    /*
+     * Sentence text together with its token annotations, which the parse
+     * depends on.
+     */
+    private static String tokenKey(Sentence docSentence){
+        StringBuilder key = new StringBuilder(docSentence.getSentence());
+        for (int i = 0; i < docSentence.getTokens().length; i++){
+            key.append('\n').append(docSentence.getTokens()[i]);
+            key.append(' ').append(docSentence.getTokenStarts()[i]);
+            key.append(' ').append(docSentence.getTokenEnds()[i]);
+            key.append(' ').append(docSentence.getTokenPOS()[i]);
+            key.append(' ').append(docSentence.getTokenNER()[i]);
+        }
+        return key.toString();
+    }
+
+    /*
+     * toAnnotation(), with POS tags added if preprocessing left them out,
+     * as it does in gazetteer mode.
+     */
+    private Annotation toTaggedAnnotation(Sentence docSentence){
+        Annotation annotation = toAnnotation(docSentence);
+        String[] tags = docSentence.getTokenPOS();
+        if (tags.length > 0 && tags[0] == null){
+            pipelines.get().pos.annotate(annotation);
+        }
+        return annotation;
+    }
+
+    /*
+     * Rebuild the CoreNLP annotation of a single sentence from the token
+     * annotations kept by preprocessing, ready for the parser.
+     */
+    private static Annotation toAnnotation(Sentence docSentence){
+        String text = docSentence.getSentence();
+        String[] words = docSentence.getTokens();
+        int[] starts = docSentence.getTokenStarts();
+        int[] ends = docSentence.getTokenEnds();
+        String[] tags = docSentence.getTokenPOS();
+        String[] labels = docSentence.getTokenNER();
+        List<CoreLabel> tokens = new ArrayList<CoreLabel>(words.length);
+        for (int i = 0; i < words.length; i++){
+            CoreLabel token = new CoreLabel();
+            token.setWord(words[i]);
+            token.setValue(words[i]);
+            token.setOriginalText(text.substring(starts[i], ends[i]));
+            token.setBeginPosition(starts[i]);
+            token.setEndPosition(ends[i]);
+            token.setTag(tags[i]);
+            token.setNER(labels[i]);
+            token.setIndex(i + 1);
+            token.setSentIndex(0);
+            tokens.add(token);
+        }
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(TextAnnotation.class, text);
+        sentence.set(CharacterOffsetBeginAnnotation.class, 0);
+        sentence.set(CharacterOffsetEndAnnotation.class, text.length());
+        sentence.set(TokensAnnotation.class, tokens);
+        sentence.set(TokenBeginAnnotation.class, 0);
+        sentence.set(TokenEndAnnotation.class, tokens.size());
+        sentence.set(SentenceIndexAnnotation.class, 0);
+        List<CoreMap> sentences = new ArrayList<CoreMap>(1);
+        sentences.add(sentence);
+        Annotation annotation = new Annotation(text);
+        annotation.set(TokensAnnotation.class, tokens);
+        annotation.set(SentencesAnnotation.class, sentences);
+        return annotation;
+    }
+
     /* 
      * Prepare documents for MultiR output.
+     * Sentences keep their tokens, POS and NER tags from preprocessing, so 
+     * normally only the dependency parse is run here.
      */
     private ArrayList<MultiRInstance> process(AnnotatedDoc doc) 
                                              throws Exception {
@@ -380,49 +1434,46 @@ public class CoreNLPProcessor implements DocProcessor{
         }
         ArrayList<Sentence> docSentences = doc.getSentences();
 
-        //prepare to capture annotation information
-        ArrayList<String> allTokens = new ArrayList<String>();
-        ArrayList<String> tokenPOSs = new ArrayList<String>();
-        ArrayList<String> tokenNERs = new ArrayList<String>();
-        ArrayList<String> tokenOffsetStarts = new ArrayList<String>();
-        ArrayList<String> tokenOffsetEnds = new ArrayList<String>();
-        ArrayList<String> sentDep = new ArrayList<String>();
-        ArrayList<String> sentDepStarts = new ArrayList<String>();
-        ArrayList<String> sentDepEnds = new ArrayList<String>();
-        
         int sentenceNum = 0;
         for (Sentence docSentence : docSentences){
             int docOffset = docSentence.getStart();
             int endOffset = docSentence.getEnd();
 
-            Annotation annotation = processor.process(docSentence.getSentence());
+            if (positiveOnly && !hasPositiveRelation(docSentence)){
+                //would be dropped by MultiRCompiler anyway
+                parsesAvoided++;
+                sentenceNum++;
+                continue;
+            }
+            Annotation annotation = parse(docSentence);
+            if (annotation == null){
+                //over the parse limits; keep the numbering of the rest
+                sentenceNum++;
+                continue;
+            }
+            //capture annotation information of this sentence only
+            columns.clear();
             List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
-            int start;
-            int end;
             for (CoreMap sentence : sentences) {
                 List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
                 for (CoreLabel token : tokens) {
-                    allTokens.add(token.get(TextAnnotation.class));
-                    tokenPOSs.add(token.get(PartOfSpeechAnnotation.class));
-                    tokenNERs.add(token.get(NamedEntityTagAnnotation.class));
-
-                    start = token.beginPosition();
-                    end = token.endPosition();
-                    tokenOffsetStarts.add(String.valueOf(start));
-                    tokenOffsetEnds.add(String.valueOf(end));
+                    columns.addToken(token.get(TextAnnotation.class),
+                                     token.beginPosition(), 
+                                     token.endPosition(),
+                                     token.get(PartOfSpeechAnnotation.class),
+                                     token.get(
+                                     NamedEntityTagAnnotation.class));
                 }
 
                 SemanticGraph dependencies = sentence.get(
                                             BasicDependenciesAnnotation.class);
                 for (IndexedWord root : dependencies.getRoots()) {
-                    sentDep.add("root");
-                    sentDepStarts.add("0");
-                    sentDepEnds.add(String.valueOf(root.index()));
+                    columns.addDependency(0, "root", root.index());
                 }
                 for (SemanticGraphEdge edge : dependencies.edgeListSorted()) {
-                    sentDep.add(edge.getRelation().toString());
-                    sentDepStarts.add(String.valueOf(edge.getTarget().index()));
-                    sentDepEnds.add(String.valueOf(edge.getSource().index()));
+                    columns.addDependency(edge.getTarget().index(),
+                                          edge.getRelation().toString(),
+                                          edge.getSource().index());
                 }
             }
 
@@ -431,19 +1482,7 @@ public class CoreNLPProcessor implements DocProcessor{
             //MultiR instance will take care of MultiR formatting 
             multiR.addSentence(docSentence.getSentence());
             multiR.addSentenceOffset(docOffset, endOffset);
-            multiR.addTokens(allTokens.toArray(new String[allTokens.size()]));
-            multiR.addNER(tokenNERs.toArray(new String[tokenNERs.size()]));
-            multiR.addPOS(tokenPOSs.toArray(new String[tokenPOSs.size()]));
-            multiR.addTokenOffsets(tokenOffsetStarts.toArray(
-                                   new String[tokenOffsetStarts.size()]), 
-                                   tokenOffsetEnds.toArray(
-                                   new String[tokenOffsetEnds.size()]));
-            multiR.addDependency(sentDep.toArray(
-                                 new String[sentDep.size()]),
-                                 sentDepStarts.toArray(
-                                 new String[sentDepStarts.size()]),
-                                 sentDepEnds.toArray(
-                                 new String[sentDepEnds.size()]));
+            multiR.addColumns(columns);
 
             //now add all the relations (training instances) MultiR needs 
             ArrayList<RelationAnnotation> relations = 
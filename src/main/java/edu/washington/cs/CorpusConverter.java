@@ -5,6 +5,7 @@
 package edu.washington.cs;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 
 public interface CorpusConverter {
     /*
@@ -12,6 +13,20 @@ public interface CorpusConverter {
      */
     public ArrayList<AnnotatedDoc> convert(File doc) throws Exception;
 
+    /*
+     * Convert only the documents with the given IDs from raw corpus file, 
+     * e.g., to rerun a document that failed in a later step.
+     */
+    public ArrayList<AnnotatedDoc> convert(File doc, Collection<String> docIDs)
+                                           throws Exception;
+
+    /*
+     * Documents of raw corpus file, read as they are asked for, so a file 
+     * never has to be in memory all at once. The source can be split to 
+     * process documents in several threads. 
+     */
+    public AnnotatedDocSource open(File doc) throws Exception;
+
     /*
      * Convert corpus file and write out.
      */
@@ -1,11 +1,13 @@
 /*
  * Handler used by SAXGigawordCorpusConverter to parse Gigaword documents. 
  * Note that because of the way SAX splits up character() calls, offsets
- * given by this class are incorrect.
+ * given by this class are incorrect, unless it is driven by a GigawordScanner
+ * which has been passed to setOffsetTracker().
  * @author Laurel Hart
  */
 package edu.washington.cs;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -13,7 +15,10 @@ import org.xml.sax.helpers.DefaultHandler;
 
 /*
  * Parses Gigaword corpus into AnnotatedDocs, which can then be retrieved using
- * getText().
+ * getText(). 
+ * Alternatively, if constructed with an AnnotatedDocConsumer, each 
+ * AnnotatedDoc is passed to the consumer as soon as its </DOC> is reached and
+ * nothing is collected, so memory use does not grow with the input file.
  * Ignore documents that are not "story" type.
  */
 public class GigawordCorpusHandler extends DefaultHandler {
@@ -30,22 +35,47 @@ public class GigawordCorpusHandler extends DefaultHandler {
     private boolean paraFlag = false;
     private String docID;
     private ArrayList<AnnotatedDoc> collectedText;
+    private AnnotatedDocConsumer consumer;
     private AnnotatedDoc currentDoc;
-    private StringBuilder currentParagraph;
+    private ParagraphText currentParagraph;
     private int offset = 0;
     private int currentDocStart = 0;
-    private int currentParaStart = 0;
+    private GigawordScanner tracker;
+    private long docCharStart = 0;
+    private long docByteStart = 0;
     
     public GigawordCorpusHandler(){
+        this(null);
+    }
+
+    /*
+     * @param docConsumer   Receives each completed AnnotatedDoc instead of it
+     *                      being collected for getText(). May be null.
+     */
+    public GigawordCorpusHandler(AnnotatedDocConsumer docConsumer){
         collectedText = new ArrayList<AnnotatedDoc>();
-        currentParagraph = new StringBuilder();
+        currentParagraph = new ParagraphText();
         docID = "";
+        consumer = docConsumer;
     }
 
     public void setVerbose(boolean verbose){
         VERBOSE = verbose;
     }
 
+    /*
+     * Take offsets from the scanner driving this handler instead of from
+     * the SAX character buffers. Sentence offsets are then character offsets
+     * relative to the start of the document's <DOC> tag in the raw file, and
+     * each AnnotatedDoc gets its byte offset and length in the raw file.
+     * Paragraphs also keep where entities were decoded (see 
+     * Sentence.sourceOffset), so sentences split from them get raw offsets
+     * too.
+     */
+    public void setOffsetTracker(GigawordScanner scanner){
+        tracker = scanner;
+    }
+
     /* 
      *  Called on encountering a starting tag, e.g., <DOC> or <TEXT> 
     */
@@ -64,6 +94,10 @@ public class GigawordCorpusHandler extends DefaultHandler {
                     docID = id;
                     currentDoc = new AnnotatedDoc(id);
                     docFlag = true;
+                    if (tracker != null){
+                        docCharStart = tracker.getCharOffset();
+                        docByteStart = tracker.getByteOffset();
+                    }
                     if (VERBOSE) {
                         System.out.println("New doc " + id + " started.");
                     } 
@@ -72,6 +106,14 @@ public class GigawordCorpusHandler extends DefaultHandler {
                     if (VERBOSE) {
                         System.out.println("Non-story encountered..." + type);
                     }
+                    if (tracker != null){
+                        //no need to see any of it, go straight to </DOC>
+                        try {
+                            tracker.skipElement();
+                        } catch (IOException e){
+                            throw new SAXException(e);
+                        }
+                    }
                 }
             
             } else if (qName.equalsIgnoreCase("TEXT")){
@@ -95,33 +137,21 @@ public class GigawordCorpusHandler extends DefaultHandler {
         if (textFlag){
             if (paraFlag){
                 //<P> is inside text, so clear currentParagraph
-                currentParagraph.setLength(0);
+                currentParagraph.clear();
                 textFlag = false;
             }
             //set starting offset 
             if (currentParagraph.length() == 0){
-                currentParaStart = start - currentDocStart; 
-            }
-            String line = new String(ch, start, length);
-            currentParagraph.append(line);
-            if (VERBOSE) {
-                System.out.println(line);
-                System.out.println("Text between " + currentParaStart
-                                   + " and " 
-                                   + (currentParaStart + line.length()) 
-                                   + " added.");
+                currentParagraph.setStart(start - currentDocStart); 
             }
+            addText(ch, start, length);
         } else if (paraFlag) {
-            String line = new String(ch, start, length);
-            currentParaStart = start - currentDocStart; 
-            currentParagraph.append(line);
-            if (VERBOSE) {
-                System.out.println(line);
-                System.out.println("Text between " + currentParaStart
-                                   + " and " 
-                                   + (currentParaStart + line.length()) 
-                                   + " added.");
+            //the tracker keeps the start of a paragraph split over several
+            //calls
+            if (tracker == null){
+                currentParagraph.setStart(start - currentDocStart); 
             }
+            addText(ch, start, length);
         } else if (docFlag){
             //if starting a new doc and not yet reached the text section
             docFlag = false;
@@ -137,6 +167,29 @@ public class GigawordCorpusHandler extends DefaultHandler {
         }
     }
 
+    /*
+     * Add text to current paragraph. Paragraph offsets are given by the
+     * tracker if there is one, otherwise the caller has already set the start
+     * from the SAX buffer. The tracker also tells where decoded entities 
+     * make the text shorter than the input, which is kept for the
+     * paragraph's Sentence.
+     */
+    private void addText(char[] ch, int start, int length){
+        if (tracker != null){
+            currentParagraph.append(tracker, docCharStart);
+        } else {
+            currentParagraph.setEnd(currentParagraph.getStart() 
+                                    + currentParagraph.length() + length);
+            currentParagraph.append(ch, start, length);
+        }
+        if (VERBOSE) {
+            System.out.println(new String(ch, start, length));
+            System.out.println("Text between " + currentParagraph.getStart()
+                               + " and " + currentParagraph.getEnd() 
+                               + " added.");
+        }
+    }
+
     /*
      * Called on encountering a end tag, e.g., </DOC> or </TEXT> 
      * If doc has paragraphs (<P>), save each paragraph as a Sentence.
@@ -145,36 +198,52 @@ public class GigawordCorpusHandler extends DefaultHandler {
      * When the document is finished, store in AnnotatedDoc then clear 
      * out StringBuilder.
      */
-    public void endElement(String uri, String localName, String qName){
+    public void endElement(String uri, String localName, String qName)
+                           throws SAXException {
         if (VERBOSE){
             System.out.println("/" + qName);
         }
         //</P>
         if (qName.equalsIgnoreCase("P")) {
-            String para = currentParagraph.toString();
-            Sentence sent = new Sentence(para, currentParaStart, 
-                                         currentParaStart +
-                                         para.length());
-            currentDoc.addSentence(sent);
+            //nothing was collected for a non-story document
+            if (storyFlag){
+                currentDoc.addSentence(currentParagraph.toSentence());
+            }
             //reset paragraph builder
-            currentParagraph.setLength(0);
+            currentParagraph.clear();
             paraFlag = false;
         //</TEXT>
         } else if (qName.equalsIgnoreCase("TEXT")) {
             //check paragraph builder isn't empty from <P> ending
-            if (currentParagraph.length() > 0){
-                String para = currentParagraph.toString();
-                Sentence sent = new Sentence(para, currentParaStart, 
-                                             para.length());
-                currentDoc.addSentence(sent);
+            if (storyFlag && currentParagraph.length() > 0){
+                currentDoc.addSentence(currentParagraph.toSentence());
                 //reset paragraph builder
-                currentParagraph.setLength(0);
+                currentParagraph.clear();
             }
             textFlag = false;
         //</DOC>
         } else if (qName.equalsIgnoreCase("DOC") && storyFlag){
+            if (tracker != null){
+                currentDoc.setSourceOffset(docByteStart);
+                currentDoc.setSourceLength(tracker.getEndByteOffset() 
+                                           - docByteStart);
+            }
             //add complete AnnotatedDoc
-            collectedText.add(currentDoc);
+            if (consumer == null){
+                collectedText.add(currentDoc);
+            } else {
+                try {
+                    consumer.consume(currentDoc);
+                } catch (Exception e){
+                    //wrap so the converter can tell this apart from a
+                    //parsing error and pass it on instead of reporting an
+                    //unparsable document
+                    throw new SAXException("AnnotatedDocConsumer failed on "
+                                           + docID, e);
+                }
+            }
+            currentDoc = null;
+            storyFlag = false;
             if (VERBOSE) {
                 System.out.println("Document " + docID + " completed.");
             }
@@ -193,7 +262,16 @@ public class GigawordCorpusHandler extends DefaultHandler {
         return collectedText;
     }
 
+    /*
+     * Drop collected AnnotatedDocs and any partly parsed document, e.g., to
+     * reuse the handler for another input.
+     */
     public void clear(){
         collectedText.clear();
+        currentParagraph.clear();
+        docFlag = false;
+        storyFlag = false;
+        textFlag = false;
+        paraFlag = false;
     }
 }
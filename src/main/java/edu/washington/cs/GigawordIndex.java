@@ -0,0 +1,364 @@
+/*
+ * Index of where each document (<DOC id="...">) is in a raw corpus file, so
+ * single documents can be read without parsing the whole file.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Offsets are byte offsets in the decompressed file. For gzipped files the
+ * index also keeps the start of every gzip member as a checkpoint: reading
+ * starts at the closest checkpoint before a document, so only that member
+ * has to be decompressed. A file compressed as one large member only has a
+ * checkpoint at 0; block-gzipped files have one every block.
+ *
+ * Index files are tab-separated text, one line per entry:
+ *      member  CompressedOffset    DecompressedOffset
+ *      doc     DocID   Offset  Length
+ *
+ * @param documents     DocID -> {offset, length}, in file order
+ * @param checkpoints   {compressed offset, decompressed offset} of each gzip
+ *                      member, in file order. Empty if file is not gzipped.
+ */
+public class GigawordIndex {
+    public static final String EXTENSION = ".idx";
+
+    private LinkedHashMap<String, long[]> documents;
+    private ArrayList<long[]> checkpoints;
+
+    public GigawordIndex(){
+        documents = new LinkedHashMap<String, long[]>();
+        checkpoints = new ArrayList<long[]>();
+    }
+
+    public static void main(String[] args) throws IOException {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: input file or directory."
+                               + " Optional: document IDs to print.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+    	File input = new File(args[0]);
+        if (args.length == 1){
+            //build an index next to every file
+            for (File file : Utils.findFiles(input)){
+                if (file.getName().endsWith(EXTENSION)){
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                GigawordIndex index = build(file);
+                index.write(indexFileFor(file));
+                System.out.println("Indexed " + index.size()
+                                   + " documents in " + file + " ("
+                                   + (System.currentTimeMillis() - start)
+                                   + " ms)");
+            }
+        } else {
+            //print raw text of given documents
+            GigawordIndex index = forFile(input);
+            for (int i = 1; i < args.length; i++){
+                byte[] document = index.readDocument(input, args[i]);
+                if (document == null){
+                    System.err.println("No document " + args[i] + " in "
+                                       + input);
+                } else {
+                    System.out.write(document);
+                    System.out.println();
+                }
+            }
+            System.out.flush();
+        }
+    }
+
+    /*
+     * Index file to use for corpus file input.
+     */
+    public static File indexFileFor(File input){
+        return new File(input.getPath() + EXTENSION);
+    }
+
+    /*
+     * Load the index next to input if there is an up to date one. Otherwise
+     * build it, and save it next to input if possible.
+     */
+    public static GigawordIndex forFile(File input) throws IOException {
+        File indexFile = indexFileFor(input);
+        if (indexFile.exists()
+            && indexFile.lastModified() >= input.lastModified()){
+            return read(indexFile);
+        }
+        GigawordIndex index = build(input);
+        try {
+            index.write(indexFile);
+        } catch (IOException e){
+            System.err.println("Unable to save index " + indexFile + ": "
+                               + e);
+        }
+        return index;
+    }
+
+    /*
+     * Scan input once, recording every document's offset and length, and
+     * every gzip member.
+     */
+    public static GigawordIndex build(File input) throws IOException {
+        GigawordIndex index = new GigawordIndex();
+        InputStream inputStream = new FileInputStream(input);
+        GzipMemberInputStream gzipStream = null;
+        if (Utils.isGzipped(input)){
+            gzipStream = new GzipMemberInputStream(inputStream);
+            inputStream = gzipStream;
+        }
+        GigawordScanner scanner = new GigawordScanner(inputStream);
+        try {
+            String docID = null;
+            long docStart = 0;
+            int event;
+            while ((event = scanner.next()) != GigawordScanner.END_DOCUMENT){
+                if (event == GigawordScanner.START_TAG
+                    && scanner.getName().equalsIgnoreCase("DOC")){
+                    docID = scanner.getAttribute("id");
+                    docStart = scanner.getByteOffset();
+                } else if (event == GigawordScanner.END_TAG
+                           && scanner.getName().equalsIgnoreCase("DOC")
+                           && docID != null){
+                    index.addDocument(docID, docStart,
+                                      scanner.getEndByteOffset() - docStart);
+                    docID = null;
+                }
+            }
+        } finally {
+            scanner.close();
+        }
+        if (gzipStream != null){
+            for (long[] member : gzipStream.getMembers()){
+                index.addCheckpoint(member[0], member[1]);
+            }
+        }
+        return index;
+    }
+
+    public static GigawordIndex read(File indexFile) throws IOException {
+        GigawordIndex index = new GigawordIndex();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                                new FileInputStream(indexFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split("\t");
+                if (fields[0].equals("doc") && fields.length == 4){
+                    index.addDocument(fields[1], Long.parseLong(fields[2]),
+                                      Long.parseLong(fields[3]));
+                } else if (fields[0].equals("member") && fields.length == 3){
+                    index.addCheckpoint(Long.parseLong(fields[1]),
+                                        Long.parseLong(fields[2]));
+                } else {
+                    throw new IOException("Malformed line in " + indexFile
+                                          + ": " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    public void write(File indexFile) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(indexFile), "UTF-8"));
+        try {
+            for (long[] checkpoint : checkpoints){
+                writer.write("member\t" + checkpoint[0] + "\t"
+                             + checkpoint[1]);
+                writer.newLine();
+            }
+            for (String docID : documents.keySet()){
+                long[] location = documents.get(docID);
+                writer.write("doc\t" + docID + "\t" + location[0] + "\t"
+                             + location[1]);
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void addDocument(String docID, long offset, long length){
+        documents.put(docID, new long[]{offset, length});
+    }
+
+    public void addCheckpoint(long compressedOffset, long offset){
+        checkpoints.add(new long[]{compressedOffset, offset});
+    }
+
+    /*
+     * @return  {compressed offset, decompressed offset} of each gzip member
+     */
+    public ArrayList<long[]> getCheckpoints(){
+        return checkpoints;
+    }
+
+    public boolean contains(String docID){
+        return documents.containsKey(docID);
+    }
+
+    /*
+     * @return  byte offset of document in decompressed file, or -1
+     */
+    public long getOffset(String docID){
+        long[] location = documents.get(docID);
+        return location == null ? -1 : location[0];
+    }
+
+    /*
+     * @return  length in bytes of document, or -1
+     */
+    public long getLength(String docID){
+        long[] location = documents.get(docID);
+        return location == null ? -1 : location[1];
+    }
+
+    public Set<String> getIDs(){
+        return documents.keySet();
+    }
+
+    public int size(){
+        return documents.size();
+    }
+
+    /*
+     * Raw bytes of a single document, from <DOC to </DOC>.
+     * @return  null if document is not in index
+     */
+    public byte[] readDocument(File input, String docID) throws IOException {
+        ArrayList<String> docIDs = new ArrayList<String>();
+        docIDs.add(docID);
+        ArrayList<byte[]> docs = readDocuments(input, docIDs);
+        return docs.isEmpty() ? null : docs.get(0);
+    }
+
+    /*
+     * Raw bytes of each document that is in the index, in file order.
+     * Documents are read in one forward pass, so documents close together
+     * share decompression work.
+     */
+    public ArrayList<byte[]> readDocuments(File input,
+                                           Collection<String> docIDs)
+                                           throws IOException {
+        ArrayList<long[]> locations = new ArrayList<long[]>();
+        for (String docID : docIDs){
+            if (documents.containsKey(docID)){
+                locations.add(documents.get(docID));
+            }
+        }
+        Collections.sort(locations, new Comparator<long[]>(){
+            public int compare(long[] a, long[] b){
+                return Long.compare(a[0], b[0]);
+            }
+        });
+
+        ArrayList<byte[]> docs = new ArrayList<byte[]>();
+        if (checkpoints.isEmpty()){
+            RandomAccessFile file = new RandomAccessFile(input, "r");
+            try {
+                for (long[] location : locations){
+                    byte[] document = new byte[(int) location[1]];
+                    file.seek(location[0]);
+                    file.readFully(document);
+                    docs.add(document);
+                }
+            } finally {
+                file.close();
+            }
+            return docs;
+        }
+
+        InputStream inputStream = null;
+        long position = 0;
+        try {
+            for (long[] location : locations){
+                long[] checkpoint = checkpointBefore(location[0]);
+                //only restart decompression if it saves skipping data
+                if (inputStream == null || position > location[0]
+                    || position < checkpoint[1]){
+                    if (inputStream != null){
+                        inputStream.close();
+                    }
+                    FileInputStream fileStream = new FileInputStream(input);
+                    fileStream.getChannel().position(checkpoint[0]);
+                    inputStream = new GZIPInputStream(fileStream, 1 << 16);
+                    position = checkpoint[1];
+                }
+                skipFully(inputStream, location[0] - position);
+                byte[] document = new byte[(int) location[1]];
+                readFully(inputStream, document);
+                position = location[0] + location[1];
+                docs.add(document);
+            }
+        } finally {
+            if (inputStream != null){
+                inputStream.close();
+            }
+        }
+        return docs;
+    }
+
+    /*
+     * Last gzip member starting at or before decompressed offset.
+     */
+    private long[] checkpointBefore(long offset){
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        while (low < high){
+            int middle = (low + high + 1) / 2;
+            if (checkpoints.get(middle)[1] <= offset){
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return checkpoints.get(low);
+    }
+
+    private static void skipFully(InputStream inputStream, long count)
+                                  throws IOException {
+        while (count > 0){
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0){
+                throw new EOFException("Index does not match file");
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void readFully(InputStream inputStream, byte[] bytes)
+                                  throws IOException {
+        int length = 0;
+        while (length < bytes.length){
+            int read = inputStream.read(bytes, length, bytes.length - length);
+            if (read < 0){
+                throw new EOFException("Index does not match file");
+            }
+            length += read;
+        }
+    }
+}
@@ -0,0 +1,730 @@
+/*
+ * Minimal pull parser for Gigaword SGML which keeps track of where in the raw
+ * input each event starts and ends, in both bytes and characters.
+ * Unlike a SAX parser it does not need a root element, and its offsets do not
+ * depend on how the text is split into chunks.
+ * Scanning does not allocate per tag or per line: buffers are reused, tag and
+ * attribute names are interned, and attribute values are only turned into
+ * Strings when asked for.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/*
+ * Input is read as UTF-8. Character offsets count UTF-16 chars, i.e., they
+ * are indexes into the String the raw input would decode to, before any
+ * entity (&amp; etc.) is replaced.
+ *
+ * @param buffer        Raw bytes, reused for the whole input
+ * @param bufferOffset  Byte offset in input of buffer[0]
+ * @param charOffset    Character offset in input of buffer[position]
+ * @param text          Decoded text of current TEXT event, reused
+ * @param shiftIndexes  Indexes in text from which its chars are further from
+ *                      the event start in the input than in text, because
+ *                      an entity before them was decoded; reused
+ * @param shifts        How much further, from each of shiftIndexes on
+ * @param names         Every distinct tag and attribute name seen so far. 
+ *                      Gigaword only uses a handful.
+ * @param values        Decoded values of the current tag's attributes, one
+ *                      after another; valueStarts and valueEnds index it
+ */
+public class GigawordScanner {
+    public static final int END_DOCUMENT = -1;
+    public static final int START_TAG = 1;
+    public static final int END_TAG = 2;
+    public static final int TEXT = 3;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private static final int MAX_ATTRIBUTES = 16;
+
+    private InputStream input;
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private long bufferOffset = 0;
+    private long charOffset = 0;
+
+    private int event = 0;
+    private long eventByteOffset = 0;
+    private long eventCharOffset = 0;
+    private boolean emptyElement = false;
+    private String name;
+    private ArrayList<String> names;
+    private String[] attributeNames;
+    private int[] valueStarts;
+    private int[] valueEnds;
+    private int attributeCount = 0;
+    private char[] values;
+    private char[] text;
+    private int textLength = 0;
+    private int[] shiftIndexes;
+    private int[] shifts;
+    private int shiftCount = 0;
+    private char[] scratch;
+    private int scratchLength = 0;
+
+    public GigawordScanner(InputStream inputStream){
+        input = inputStream;
+        buffer = new byte[BUFFER_SIZE];
+        names = new ArrayList<String>();
+        attributeNames = new String[MAX_ATTRIBUTES];
+        valueStarts = new int[MAX_ATTRIBUTES];
+        valueEnds = new int[MAX_ATTRIBUTES];
+        values = new char[256];
+        text = new char[1024];
+        shiftIndexes = new int[16];
+        shifts = new int[16];
+        scratch = new char[64];
+    }
+
+    /*
+     * Advance to the next event.
+     * @return  START_TAG, END_TAG, TEXT, or END_DOCUMENT
+     */
+    public int next() throws IOException {
+        if (emptyElement){
+            //<TAG/> is reported as a start tag followed by an end tag
+            emptyElement = false;
+            attributeCount = 0;
+            return event = END_TAG;
+        }
+        eventByteOffset = bufferOffset + position;
+        eventCharOffset = charOffset;
+        int c = peek(0);
+        if (c == -1){
+            return event = END_DOCUMENT;
+        }
+        if (c == '<' && isMarkup(peek(1))){
+            read();
+            c = peek(0);
+            if (c == '/'){
+                read();
+                readName();
+                skipPast('>');
+                attributeCount = 0;
+                return event = END_TAG;
+            } else if (c == '!' || c == '?'){
+                skipDeclaration();
+                return next();
+            }
+            readName();
+            readAttributes();
+            return event = START_TAG;
+        }
+        readText();
+        return event = TEXT;
+    }
+
+    /*
+     * Skip the rest of the element of the current START_TAG without decoding
+     * any of it, so that the next event is the element's END_TAG, e.g., to
+     * pass over a whole <DOC> that is not wanted. Elements of the same name
+     * nested inside are not looked for; Gigaword does not nest them.
+     */
+    public void skipElement() throws IOException {
+        if (event != START_TAG || emptyElement){
+            return;
+        }
+        String skipped = name;
+        while (true){
+            if (position == limit && !ensure(1)){
+                return;
+            }
+            //count chars up to the next '<' straight from the buffer
+            int i = position;
+            long chars = 0;
+            while (i < limit && buffer[i] != '<'){
+                int b = buffer[i++];
+                if ((b & 0xC0) != 0x80){
+                    chars++;
+                    if ((b & 0xF8) == 0xF0){
+                        chars++;
+                    }
+                }
+            }
+            charOffset += chars;
+            position = i;
+            if (position < limit){
+                if (isEndTag(skipped)){
+                    return;
+                }
+                read();
+            }
+        }
+    }
+
+    /*
+     * Whether input continues with </tagName followed by '>' or whitespace,
+     * ignoring case.
+     */
+    private boolean isEndTag(String tagName) throws IOException {
+        if (peek(0) != '<' || peek(1) != '/'){
+            return false;
+        }
+        for (int i = 0; i < tagName.length(); i++){
+            int c = peek(2 + i);
+            if (c == -1 || Character.toUpperCase((char) c) 
+                           != Character.toUpperCase(tagName.charAt(i))){
+                return false;
+            }
+        }
+        int after = peek(2 + tagName.length());
+        return after == '>' || isWhitespace(after);
+    }
+
+    public int getEventType(){
+        return event;
+    }
+
+    /*
+     * Name of current START_TAG or END_TAG, as it appears in the input.
+     */
+    public String getName(){
+        return name;
+    }
+
+    /*
+     * Whether current START_TAG or END_TAG is tagName, ignoring case.
+     */
+    public boolean isName(String tagName){
+        return name == tagName || name.equalsIgnoreCase(tagName);
+    }
+
+    /*
+     * Value of attribute of current START_TAG, or null if not present.
+     * Attribute names are not case sensitive.
+     */
+    public String getAttribute(String attributeName){
+        int i = findAttribute(attributeName);
+        if (i == -1){
+            return null;
+        }
+        return new String(values, valueStarts[i], valueEnds[i] - valueStarts[i]);
+    }
+
+    /*
+     * Whether current START_TAG has attribute with value, ignoring case of
+     * both, without creating the value as a String.
+     */
+    public boolean attributeEquals(String attributeName, String value){
+        int i = findAttribute(attributeName);
+        if (i == -1 || valueEnds[i] - valueStarts[i] != value.length()){
+            return false;
+        }
+        for (int j = 0; j < value.length(); j++){
+            char c = values[valueStarts[i] + j];
+            char v = value.charAt(j);
+            if (c != v && Character.toLowerCase(c) != Character.toLowerCase(v)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int findAttribute(String attributeName){
+        for (int i = 0; i < attributeCount; i++){
+            if (attributeNames[i].equalsIgnoreCase(attributeName)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Decoded characters of current TEXT event. Only the first
+     * getTextLength() characters are valid, and the array is reused by the
+     * next call to next().
+     */
+    public char[] getTextCharacters(){
+        return text;
+    }
+
+    public int getTextLength(){
+        return textLength;
+    }
+
+    /*
+     * Character offset in the input of text[index] of the current TEXT 
+     * event, relative to getCharOffset(). Differs from index after an 
+     * entity, e.g., &amp; is 5 chars in the input but 1 in the text.
+     */
+    public int getTextOffset(int index){
+        int shift = 0;
+        for (int i = 0; i < shiftCount && shiftIndexes[i] <= index; i++){
+            shift = shifts[i];
+        }
+        return index + shift;
+    }
+
+    /*
+     * Number of places in the text of the current TEXT event from which
+     * getTextOffset() changes by more than the index.
+     */
+    public int getTextShiftCount(){
+        return shiftCount;
+    }
+
+    /*
+     * Index in the text of the ith such place.
+     */
+    public int getTextShiftIndex(int i){
+        return shiftIndexes[i];
+    }
+
+    /*
+     * Byte offset in the input of the first byte of the current event.
+     */
+    public long getByteOffset(){
+        return eventByteOffset;
+    }
+
+    /*
+     * Byte offset in the input just past the last byte of the current event.
+     */
+    public long getEndByteOffset(){
+        return bufferOffset + position;
+    }
+
+    /*
+     * Character offset in the input of the start of the current event.
+     */
+    public long getCharOffset(){
+        return eventCharOffset;
+    }
+
+    /*
+     * Character offset in the input just past the end of the current event.
+     */
+    public long getEndCharOffset(){
+        return charOffset;
+    }
+
+    /*
+     * Drive a SAX handler with the events from the whole input, e.g.,
+     * GigawordCorpusHandler. Handler can call the offset getters from its
+     * callbacks to find out where the event is in the input.
+     */
+    public void parse(DefaultHandler handler) throws IOException,
+                                                     SAXException {
+        AttributesImpl attributes = new AttributesImpl();
+        handler.startDocument();
+        int type;
+        while ((type = next()) != END_DOCUMENT){
+            if (type == START_TAG){
+                attributes.clear();
+                for (int i = 0; i < attributeCount; i++){
+                    String attributeName = attributeNames[i];
+                    attributes.addAttribute("", attributeName, attributeName,
+                                            "CDATA", getAttribute(
+                                                     attributeName));
+                }
+                handler.startElement("", name, name, attributes);
+            } else if (type == END_TAG){
+                handler.endElement("", name, name);
+            } else if (type == TEXT){
+                handler.characters(text, 0, textLength);
+            }
+        }
+        handler.endDocument();
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /*
+     * Whether '<' followed by c starts a tag, rather than being a stray '<'
+     * in the text.
+     */
+    private boolean isMarkup(int c){
+        return c == '/' || c == '!' || c == '?'
+               || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private boolean isNameChar(int c){
+        return c != -1 && c != '>' && c != '/' && c != '='
+               && !isWhitespace(c);
+    }
+
+    private boolean isWhitespace(int c){
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private void readName() throws IOException {
+        scratchLength = 0;
+        while (isNameChar(peek(0))){
+            appendScratch((char) read());
+        }
+        name = intern();
+    }
+
+    /*
+     * The String for the name in scratch, reusing the one from the last time
+     * the name was seen.
+     */
+    private String intern(){
+        for (int i = 0; i < names.size(); i++){
+            String known = names.get(i);
+            if (known.length() == scratchLength){
+                int j = 0;
+                while (j < scratchLength && known.charAt(j) == scratch[j]){
+                    j++;
+                }
+                if (j == scratchLength){
+                    return known;
+                }
+            }
+        }
+        String known = new String(scratch, 0, scratchLength);
+        names.add(known);
+        return known;
+    }
+
+    private void appendScratch(char c){
+        if (scratchLength == scratch.length){
+            char[] bigger = new char[scratch.length * 2];
+            System.arraycopy(scratch, 0, bigger, 0, scratchLength);
+            scratch = bigger;
+        }
+        scratch[scratchLength++] = c;
+    }
+
+    /*
+     * Read attributes up to and including the closing '>' of a start tag.
+     */
+    private void readAttributes() throws IOException {
+        attributeCount = 0;
+        textLength = 0;
+        int c;
+        while ((c = read()) != -1){
+            if (c == '>'){
+                break;
+            } else if (c == '/' && peek(0) == '>'){
+                read();
+                emptyElement = true;
+                break;
+            } else if (isNameChar(c)){
+                scratchLength = 0;
+                appendScratch((char) c);
+                while (isNameChar(peek(0))){
+                    appendScratch((char) read());
+                }
+                String attributeName = intern();
+                skipWhitespace();
+                int start = textLength;
+                if (peek(0) == '='){
+                    read();
+                    skipWhitespace();
+                    readAttributeValue();
+                }
+                if (attributeCount < MAX_ATTRIBUTES){
+                    attributeNames[attributeCount] = attributeName;
+                    valueStarts[attributeCount] = start;
+                    valueEnds[attributeCount] = textLength;
+                    attributeCount++;
+                }
+            }
+        }
+        //values were decoded into text; keep them, as text is reused
+        if (values.length < textLength){
+            values = new char[Math.max(values.length * 2, textLength)];
+        }
+        System.arraycopy(text, 0, values, 0, textLength);
+        textLength = 0;
+    }
+
+    /*
+     * Decode an attribute value onto the end of text.
+     */
+    private void readAttributeValue() throws IOException {
+        int quote = peek(0);
+        if (quote == '"' || quote == '\''){
+            read();
+            int c;
+            while ((c = peek(0)) != -1 && c != quote){
+                readCharacter();
+            }
+            read();
+        } else {
+            while (isNameChar(peek(0))){
+                readCharacter();
+            }
+        }
+    }
+
+    private void readText() throws IOException {
+        textLength = 0;
+        shiftCount = 0;
+        int c;
+        while ((c = peek(0)) != -1 && !(c == '<' && isMarkup(peek(1)))){
+            if (c == '<' || c == '&' || c >= 0x80){
+                readCharacter();
+                recordShift();
+                continue;
+            }
+            //copy the run of plain ASCII straight out of the buffer
+            int end = position;
+            while (end < limit && buffer[end] >= 0 && buffer[end] != '<' 
+                   && buffer[end] != '&'){
+                end++;
+            }
+            int length = end - position;
+            if (textLength + length > text.length){
+                char[] bigger = new char[Math.max(text.length * 2, 
+                                                  textLength + length)];
+                System.arraycopy(text, 0, bigger, 0, textLength);
+                text = bigger;
+            }
+            for (int i = position; i < end; i++){
+                text[textLength++] = (char) buffer[i];
+            }
+            charOffset += length;
+            position = end;
+        }
+    }
+
+    /*
+     * Note where the chars decoded so far stop lining up with the input.
+     */
+    private void recordShift(){
+        int shift = (int) (charOffset - eventCharOffset) - textLength;
+        if (shift == (shiftCount == 0 ? 0 : shifts[shiftCount - 1])){
+            return;
+        }
+        if (shiftCount == shifts.length){
+            shiftIndexes = Arrays.copyOf(shiftIndexes, 2 * shiftCount);
+            shifts = Arrays.copyOf(shifts, 2 * shiftCount);
+        }
+        shiftIndexes[shiftCount] = textLength;
+        shifts[shiftCount++] = shift;
+    }
+
+    /*
+     * Decode one UTF-8 character, or entity reference, onto the end of text.
+     * Malformed input becomes U+FFFD. Unknown entities are kept as is.
+     */
+    private void readCharacter() throws IOException {
+        int b = read();
+        if (b == '&'){
+            readEntity();
+            return;
+        }
+        int codePoint;
+        int extra;
+        if (b < 0x80){
+            appendText((char) b);
+            return;
+        } else if ((b & 0xE0) == 0xC0){
+            codePoint = b & 0x1F;
+            extra = 1;
+        } else if ((b & 0xF0) == 0xE0){
+            codePoint = b & 0x0F;
+            extra = 2;
+        } else if ((b & 0xF8) == 0xF0){
+            codePoint = b & 0x07;
+            extra = 3;
+        } else {
+            appendText('\uFFFD');
+            return;
+        }
+        for (int i = 0; i < extra; i++){
+            int next = peek(0);
+            if (next == -1 || (next & 0xC0) != 0x80){
+                appendText('\uFFFD');
+                return;
+            }
+            codePoint = (codePoint << 6) | (read() & 0x3F);
+        }
+        appendCodePoint(codePoint);
+    }
+
+    private void readEntity() throws IOException {
+        scratchLength = 0;
+        int c;
+        //entity names are ASCII; a byte of a UTF-8 character ends the name
+        //and is left for readCharacter()
+        while (scratchLength < MAX_ENTITY_LENGTH
+               && ((c = peek(0)) == '#'
+                   || (c < 0x80 && Character.isLetterOrDigit(c)))){
+            appendScratch((char) read());
+        }
+        if (peek(0) == ';'){
+            int codePoint = -1;
+            if (scratchIs("amp")){
+                codePoint = '&';
+            } else if (scratchIs("lt")){
+                codePoint = '<';
+            } else if (scratchIs("gt")){
+                codePoint = '>';
+            } else if (scratchIs("quot")){
+                codePoint = '"';
+            } else if (scratchIs("apos")){
+                codePoint = '\'';
+            } else if (scratchLength > 1 && scratch[0] == '#'
+                       && (scratch[1] == 'x' || scratch[1] == 'X')){
+                codePoint = parseCodePoint(2, 16);
+            } else if (scratchLength > 0 && scratch[0] == '#'){
+                codePoint = parseCodePoint(1, 10);
+            }
+            if (codePoint != -1){
+                read();
+                appendCodePoint(codePoint);
+                return;
+            }
+        }
+        //not an entity we know, keep the text as it was
+        appendText('&');
+        for (int i = 0; i < scratchLength; i++){
+            appendText(scratch[i]);
+        }
+    }
+
+    private boolean scratchIs(String entity){
+        if (scratchLength != entity.length()){
+            return false;
+        }
+        for (int i = 0; i < scratchLength; i++){
+            if (scratch[i] != entity.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Number in scratch from start, e.g., the 233 of &#233;
+     * @return  -1 if it is not a valid code point
+     */
+    private int parseCodePoint(int start, int radix){
+        if (start == scratchLength){
+            return -1;
+        }
+        int codePoint = 0;
+        for (int i = start; i < scratchLength; i++){
+            int digit = Character.digit(scratch[i], radix);
+            if (digit == -1){
+                return -1;
+            }
+            codePoint = codePoint * radix + digit;
+            if (codePoint > Character.MAX_CODE_POINT){
+                return -1;
+            }
+        }
+        return codePoint;
+    }
+
+    private void appendCodePoint(int codePoint){
+        if (Character.isSupplementaryCodePoint(codePoint)){
+            appendText(Character.highSurrogate(codePoint));
+            appendText(Character.lowSurrogate(codePoint));
+        } else {
+            appendText((char) codePoint);
+        }
+    }
+
+    private void appendText(char c){
+        if (textLength == text.length){
+            char[] bigger = new char[text.length * 2];
+            System.arraycopy(text, 0, bigger, 0, textLength);
+            text = bigger;
+        }
+        text[textLength++] = c;
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (isWhitespace(peek(0))){
+            read();
+        }
+    }
+
+    private void skipPast(int end) throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != end){
+        }
+    }
+
+    /*
+     * Skip <!-- comments -->, <!DOCTYPE ...> and <?processing instructions?>
+     */
+    private void skipDeclaration() throws IOException {
+        if (peek(0) == '!' && peek(1) == '-' && peek(2) == '-'){
+            int dashes = 0;
+            int c;
+            while ((c = read()) != -1){
+                if (c == '>' && dashes >= 2){
+                    return;
+                }
+                dashes = (c == '-') ? dashes + 1 : 0;
+            }
+        } else {
+            skipPast('>');
+        }
+    }
+
+    /*
+     * Consume one byte, keeping charOffset up to date: every byte that is
+     * not a UTF-8 continuation byte starts a new char, and 4 byte sequences
+     * are 2 chars (a surrogate pair).
+     * @return  the byte, or -1 at end of input
+     */
+    private int read() throws IOException {
+        if (position == limit && !ensure(1)){
+            return -1;
+        }
+        int b = buffer[position++];
+        if ((b & 0xC0) != 0x80){
+            charOffset++;
+            if ((b & 0xF8) == 0xF0){
+                charOffset++;
+            }
+        }
+        return b & 0xFF;
+    }
+
+    /*
+     * Look at a byte without consuming it.
+     * @return  the byte ahead bytes past the current position, or -1 if
+     *          input ends first
+     */
+    private int peek(int ahead) throws IOException {
+        if (position + ahead >= limit && !ensure(ahead + 1)){
+            return -1;
+        }
+        return buffer[position + ahead] & 0xFF;
+    }
+
+    /*
+     * Make sure at least count unconsumed bytes are in the buffer.
+     * @return  false if input ends first
+     */
+    private boolean ensure(int count) throws IOException {
+        if (limit - position >= count){
+            return true;
+        }
+        if (position > 0){
+            //keep unconsumed bytes, drop the rest
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count){
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if (read < 0){
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+}
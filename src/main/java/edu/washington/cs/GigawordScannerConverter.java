@@ -0,0 +1,495 @@
+/*
+ * Converts Gigaword documents to AnnotatedDocs straight from GigawordScanner
+ * events, without going through SAX.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Gives the same AnnotatedDocs as SAXGigawordConverter with
+ * setTrackOffsets(true): one Sentence per <P> (or per <TEXT>, if it has no
+ * <P>) of each document of type "story", with offsets relative to the <DOC>
+ * tag, and each document's byte offset and length in the input.
+ * Tags and attributes are matched in the scanner's buffers, so the only
+ * objects created are the AnnotatedDocs and their contents.
+ *
+ * Uncompressed inputs are memory-mapped, and can be cut into chunks at <DOC
+ * boundaries which are scanned on their own: by open(), through
+ * AnnotatedDocSource.trySplit(), or by convert() with several threads, which
+ * passes on the results in file order.
+ *
+ * @param decompressionThreads  see SAXGigawordConverter
+ * @param conversionThreads     Threads to convert uncompressed inputs with
+ * @param MAX_CHUNK_LENGTH      Largest chunk to convert in one go. Smaller
+ *                              than a file divided by the number of threads
+ *                              for big files, so that only a few chunks'
+ *                              AnnotatedDocs are held waiting at any time.
+ * @param MIN_CHUNK_LENGTH      Chunks smaller than this are not worth
+ *                              splitting.
+ */
+public class GigawordScannerConverter implements CorpusConverter {
+    private static final int MAX_CHUNK_LENGTH = 32 << 20;
+    private static final int MIN_CHUNK_LENGTH = 1 << 20;
+
+    private boolean VERBOSE = false;
+    private int decompressionThreads =
+                Runtime.getRuntime().availableProcessors();
+    private int conversionThreads =
+                Runtime.getRuntime().availableProcessors();
+
+    public void setVerbose(boolean verbose){
+        VERBOSE = verbose;
+    }
+
+    /*
+     * @see SAXGigawordConverter#setDecompressionThreads(int)
+     */
+    public void setDecompressionThreads(int threads){
+        decompressionThreads = threads;
+    }
+
+    /*
+     * Set how many threads to convert uncompressed inputs with. Defaults to
+     * the number of processors. Gzipped inputs are always scanned in one
+     * thread, since they can not be split before decompressing.
+     */
+    public void setConversionThreads(int threads){
+        conversionThreads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+    	if ( args.length < 2 ){
+            System.err.println("Required arguments: input file, output file.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        GigawordScannerConverter converter = new GigawordScannerConverter();
+        converter.convert(new File(args[0]), new File(args[1]));
+    }
+
+    public ArrayList<AnnotatedDoc> convert(File input) throws Exception {
+        final ArrayList<AnnotatedDoc> docs = new ArrayList<AnnotatedDoc>();
+        convert(input, new AnnotatedDocConsumer(){
+            public void consume(AnnotatedDoc doc){
+                docs.add(doc);
+            }
+        });
+        return docs;
+    }
+
+    /*
+     * Streaming version of convert(File). Each AnnotatedDoc is passed to
+     * consumer as soon as its </DOC> is reached, and is not kept afterwards.
+     */
+    public void convert(File input, AnnotatedDocConsumer consumer)
+                        throws Exception {
+        if (conversionThreads > 1 && isMappable(input)
+            && input.length() >= 2 * MIN_CHUNK_LENGTH){
+            convertMapped(input, consumer);
+            return;
+        }
+        AnnotatedDocSource source = open(input);
+        try {
+            while (source.hasNext()){
+                consumer.consume(source.next());
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /*
+     * Documents of input, read as they are asked for. Uncompressed inputs are
+     * memory-mapped and split at <DOC boundaries; gzipped inputs are split by
+     * reading ahead (see BatchingDocSource).
+     */
+    public AnnotatedDocSource open(File input) throws IOException {
+        if (VERBOSE){
+            System.out.println("Scanning " + input);
+        }
+        if (isMappable(input)){
+            return new MappedDocSource(map(input), 0, VERBOSE);
+        }
+        DocReader reader = new DocReader(new GigawordScanner(
+                           Utils.gzipCheck(input, decompressionThreads)), 0,
+                           VERBOSE);
+        return new BatchingDocSource(reader, reader);
+    }
+
+    /*
+     * Convert chunks of uncompressed input in parallel, passing the
+     * AnnotatedDocs to consumer in file order, from this thread.
+     */
+    private void convertMapped(File input, AnnotatedDocConsumer consumer)
+                               throws Exception {
+        ByteBuffer file = map(input);
+        int chunkLength = (file.limit() + conversionThreads - 1)
+                          / conversionThreads;
+        chunkLength = Math.min(Math.max(chunkLength, MIN_CHUNK_LENGTH),
+                               MAX_CHUNK_LENGTH);
+        ExecutorService pool = Utils.newDaemonPool(conversionThreads,
+                                                   "convert");
+        ArrayDeque<Future<ArrayList<AnnotatedDoc>>> pending =
+            new ArrayDeque<Future<ArrayList<AnnotatedDoc>>>();
+        if (VERBOSE){
+            System.out.println("Scanning " + input + " in chunks of "
+                               + chunkLength + " bytes");
+        }
+        try {
+            MappedDocSource rest = new MappedDocSource(file, 0, VERBOSE);
+            while (rest != null){
+                final MappedDocSource chunk = rest;
+                rest = chunk.splitAt(chunkLength);
+                pending.add(pool.submit(new Callable<ArrayList<AnnotatedDoc>>(){
+                    public ArrayList<AnnotatedDoc> call(){
+                        ArrayList<AnnotatedDoc> docs =
+                            new ArrayList<AnnotatedDoc>();
+                        while (chunk.hasNext()){
+                            docs.add(chunk.next());
+                        }
+                        return docs;
+                    }
+                }));
+                //keep order and limit memory by waiting on the oldest chunk
+                while (pending.size() > 2 * conversionThreads){
+                    deliver(pending.poll(), consumer);
+                }
+            }
+            while (!pending.isEmpty()){
+                deliver(pending.poll(), consumer);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void deliver(Future<ArrayList<AnnotatedDoc>> chunk,
+                         AnnotatedDocConsumer consumer) throws Exception {
+        ArrayList<AnnotatedDoc> docs;
+        try {
+            docs = chunk.get();
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof Exception){
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        for (AnnotatedDoc doc : docs){
+            consumer.consume(doc);
+        }
+    }
+
+    /*
+     * Whether input is uncompressed and small enough to map in one go.
+     */
+    private static boolean isMappable(File input){
+        return !Utils.isGzipped(input) && input.length() <= Integer.MAX_VALUE;
+    }
+
+    /*
+     * Map input into memory. The mapping stays valid after the file is
+     * closed.
+     */
+    private static ByteBuffer map(File input) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(input, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                         file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+     * Convert only the documents with the given IDs, reading each one
+     * straight from its offset in input using the GigawordIndex next to
+     * input.
+     * @return  AnnotatedDocs in the order they appear in input
+     */
+    public ArrayList<AnnotatedDoc> convert(File input,
+                                           Collection<String> docIDs)
+                                           throws Exception {
+        GigawordIndex index = GigawordIndex.forFile(input);
+        ArrayList<AnnotatedDoc> docs = new ArrayList<AnnotatedDoc>();
+        for (byte[] document : index.readDocuments(input, docIDs)){
+            DocReader reader = new DocReader(new GigawordScanner(
+                               new ByteArrayInputStream(document)), 0,
+                               VERBOSE);
+            try {
+                AnnotatedDoc doc;
+                while ((doc = reader.read()) != null){
+                    //scanner only saw the document itself, so offset needs
+                    //adjusting
+                    doc.setSourceOffset(index.getOffset(doc.getID()));
+                    docs.add(doc);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return docs;
+    }
+
+    /*
+     * Write out AnnotatedDocs of input as GZIPed JSON, one at a time.
+     */
+    public void convert(File input, File output) throws Exception {
+        Utils.serializeAnnotatedDocs(output, open(input));
+    }
+
+    /*
+     * Source over a memory-mapped (part of a) file, split at <DOC
+     * boundaries.
+     * @param buffer    Bytes of this source; position is how far the reader
+     *                  has got
+     * @param offset    Byte offset of buffer in the file
+     */
+    private static class MappedDocSource implements AnnotatedDocSource {
+        private ByteBuffer buffer;
+        private long offset;
+        private boolean verbose;
+        private DocReader reader;
+
+        MappedDocSource(ByteBuffer bytes, long byteOffset,
+                        boolean verboseOutput){
+            buffer = bytes;
+            offset = byteOffset;
+            verbose = verboseOutput;
+            reader = new DocReader(new GigawordScanner(
+                     new ByteBufferInputStream(buffer)), offset, verbose);
+        }
+
+        public boolean hasNext(){
+            return reader.hasNext();
+        }
+
+        public AnnotatedDoc next(){
+            return reader.next();
+        }
+
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+
+        /*
+         * Split about half way through what is left.
+         */
+        public AnnotatedDocSource trySplit(){
+            int remaining = buffer.limit() - buffer.position();
+            if (remaining < 2 * MIN_CHUNK_LENGTH){
+                return null;
+            }
+            return splitAt(remaining / 2);
+        }
+
+        /*
+         * Keep about length more bytes, up to the next <DOC, and hand the
+         * rest to a new source.
+         * @return  null if there is no <DOC to split at
+         */
+        MappedDocSource splitAt(int length){
+            int start = buffer.position();
+            if (length >= buffer.limit() - start){
+                return null;
+            }
+            int split = findDoc(buffer, start + length);
+            if (split == -1){
+                return null;
+            }
+            ByteBuffer rest = buffer.duplicate();
+            rest.position(split);
+            buffer.limit(split);
+            return new MappedDocSource(rest.slice(), offset + split, verbose);
+        }
+
+        public void close(){
+        }
+
+        /*
+         * Index of the first <DOC at the start of a line at or after from.
+         * @return  -1 if there is none
+         */
+        private static int findDoc(ByteBuffer bytes, int from){
+            int end = bytes.limit() - 5;
+            for (int i = Math.max(from - 1, 0); i < end; i++){
+                if (bytes.get(i) == '\n' && bytes.get(i + 1) == '<'
+                    && bytes.get(i + 2) == 'D' && bytes.get(i + 3) == 'O'
+                    && bytes.get(i + 4) == 'C'
+                    && (bytes.get(i + 5) == ' ' || bytes.get(i + 5) == '>')){
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /*
+     * Reads a (memory-mapped) ByteBuffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer byteBuffer){
+            buffer = byteBuffer;
+        }
+
+        public int read(){
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] bytes, int offset, int length){
+            if (length == 0){
+                return 0;
+            }
+            if (!buffer.hasRemaining()){
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    /*
+     * Pulls stories out of a scanner one at a time.
+     * @param offset    Byte offset of the scanner's input in the file
+     */
+    private static class DocReader implements Iterator<AnnotatedDoc>,
+                                              Closeable {
+        private GigawordScanner scanner;
+        private long offset;
+        private boolean verbose;
+        private ParagraphText paragraph;
+        private AnnotatedDoc nextDoc = null;
+        private boolean finished = false;
+
+        DocReader(GigawordScanner gigawordScanner, long byteOffset,
+                  boolean verboseOutput){
+            scanner = gigawordScanner;
+            offset = byteOffset;
+            verbose = verboseOutput;
+            paragraph = new ParagraphText();
+        }
+
+        public boolean hasNext(){
+            if (nextDoc == null && !finished){
+                try {
+                    nextDoc = read();
+                } catch (IOException e){
+                    throw new RuntimeException("Unable to read corpus", e);
+                }
+                finished = nextDoc == null;
+            }
+            return nextDoc != null;
+        }
+
+        public AnnotatedDoc next(){
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            AnnotatedDoc doc = nextDoc;
+            nextDoc = null;
+            return doc;
+        }
+
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            scanner.close();
+        }
+
+        /*
+         * Scan up to the end of the next story.
+         * @return  null at end of input
+         */
+        AnnotatedDoc read() throws IOException {
+            AnnotatedDoc doc = null;
+            long docCharStart = 0;
+            long docByteStart = 0;
+            boolean textFlag = false;
+            boolean paraFlag = false;
+            paragraph.clear();
+            int event;
+            while ((event = scanner.next()) != GigawordScanner.END_DOCUMENT){
+                if (event == GigawordScanner.TEXT){
+                    if (doc == null){
+                        continue;
+                    }
+                    if (textFlag && paraFlag){
+                        //<P> is inside <TEXT>, so only keep text of the <P>
+                        paragraph.clear();
+                        textFlag = false;
+                    }
+                    if (textFlag || paraFlag){
+                        paragraph.append(scanner, docCharStart);
+                    }
+                } else if (event == GigawordScanner.START_TAG){
+                    if (scanner.isName("DOC")){
+                        paragraph.clear();
+                        textFlag = false;
+                        paraFlag = false;
+                        doc = null;
+                        if (scanner.attributeEquals("type", "story")){
+                            doc = new AnnotatedDoc(scanner.getAttribute("id"));
+                            docCharStart = scanner.getCharOffset();
+                            docByteStart = scanner.getByteOffset();
+                        }
+                        if (verbose){
+                            System.out.println((doc == null ? "Skipping "
+                                                : "New doc ")
+                                               + scanner.getAttribute("id"));
+                        }
+                        if (doc == null){
+                            //go straight to </DOC>, decoding nothing
+                            scanner.skipElement();
+                        }
+                    } else if (scanner.isName("TEXT")){
+                        textFlag = true;
+                    } else if (scanner.isName("P")){
+                        paraFlag = true;
+                    }
+                } else if (event == GigawordScanner.END_TAG){
+                    if (scanner.isName("P")){
+                        if (doc != null){
+                            doc.addSentence(paragraph.toSentence());
+                        }
+                        paragraph.clear();
+                        paraFlag = false;
+                    } else if (scanner.isName("TEXT")){
+                        if (doc != null && paragraph.length() > 0){
+                            doc.addSentence(paragraph.toSentence());
+                        }
+                        paragraph.clear();
+                        textFlag = false;
+                    } else if (scanner.isName("DOC") && doc != null){
+                        doc.setSourceOffset(offset + docByteStart);
+                        doc.setSourceLength(scanner.getEndByteOffset()
+                                            - docByteStart);
+                        return doc;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Decompresses a gzip file member by member, recording where each member
+ * starts in both the compressed file and the decompressed data.
+ * A gzip file may be several complete gzip streams (members) one after
+ * another. Decompression can be started fresh at the beginning of any member,
+ * so member starts are the points a reader can seek to.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/*
+ * @param members   One {compressed offset, decompressed offset} pair for each
+ *                  member read so far
+ */
+public class GzipMemberInputStream extends InputStream {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private InputStream input;
+    private byte[] rawBuffer;
+    private int rawPosition = 0;
+    private int rawLimit = 0;
+    private long rawBufferOffset = 0;
+    private Inflater inflater;
+    private CRC32 crc;
+    private long position = 0;
+    private boolean inMember = false;
+    private boolean finished = false;
+    private ArrayList<long[]> members;
+    private byte[] single = new byte[1];
+
+    public GzipMemberInputStream(InputStream compressed){
+        input = compressed;
+        rawBuffer = new byte[1 << 16];
+        inflater = new Inflater(true);
+        crc = new CRC32();
+        members = new ArrayList<long[]>();
+    }
+
+    /*
+     * @return  {compressed offset, decompressed offset} of the start of each
+     *          member read so far
+     */
+    public ArrayList<long[]> getMembers(){
+        return members;
+    }
+
+    /*
+     * @return  number of decompressed bytes read so far
+     */
+    public long getPosition(){
+        return position;
+    }
+
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0){
+            return 0;
+        }
+        while (!finished){
+            if (!inMember && !startMember()){
+                finished = true;
+                break;
+            }
+            int read;
+            try {
+                if (inflater.needsInput()){
+                    if (!fill()){
+                        throw new EOFException("Unexpected end of gzip file");
+                    }
+                    inflater.setInput(rawBuffer, rawPosition,
+                                      rawLimit - rawPosition);
+                    rawPosition = rawLimit;
+                }
+                read = inflater.inflate(bytes, offset, length);
+            } catch (DataFormatException e){
+                throw new ZipException(e.getMessage());
+            }
+            if (read > 0){
+                crc.update(bytes, offset, read);
+                position += read;
+            }
+            if (inflater.finished()){
+                //give back what the inflater did not use
+                rawPosition -= inflater.getRemaining();
+                readTrailer();
+                inMember = false;
+            }
+            if (read > 0){
+                return read;
+            }
+        }
+        return -1;
+    }
+
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+
+    /*
+     * Read a member header, if there is another member.
+     * Anything other than a gzip header after the first member is treated as
+     * the end of the file, as GZIPInputStream does.
+     */
+    private boolean startMember() throws IOException {
+        long memberOffset = rawBufferOffset + rawPosition;
+        int first = readRawByte();
+        if (first == -1){
+            return false;
+        }
+        int second = readRawByte();
+        if ((first | (second << 8)) != GZIPInputStream.GZIP_MAGIC){
+            if (members.isEmpty()){
+                throw new ZipException("Not in gzip format");
+            }
+            return false;
+        }
+        if (readRawByte() != 8){
+            throw new ZipException("Unsupported compression method");
+        }
+        int flags = readRawByte();
+        //modification time, extra flags, operating system
+        skipRaw(6);
+        if ((flags & FEXTRA) != 0){
+            skipRaw(readRawShort());
+        }
+        if ((flags & FNAME) != 0){
+            skipString();
+        }
+        if ((flags & FCOMMENT) != 0){
+            skipString();
+        }
+        if ((flags & FHCRC) != 0){
+            skipRaw(2);
+        }
+        members.add(new long[]{memberOffset, position});
+        inflater.reset();
+        crc.reset();
+        inMember = true;
+        return true;
+    }
+
+    private void readTrailer() throws IOException {
+        long expectedCRC = readRawInt();
+        long expectedSize = readRawInt();
+        if (expectedCRC != crc.getValue()){
+            throw new ZipException("Corrupt gzip member (bad CRC)");
+        }
+        if (expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)){
+            throw new ZipException("Corrupt gzip member (bad length)");
+        }
+    }
+
+    private void skipString() throws IOException {
+        int b;
+        while ((b = readRawByte()) > 0){
+        }
+        if (b == -1){
+            throw new EOFException("Unexpected end of gzip header");
+        }
+    }
+
+    private void skipRaw(int count) throws IOException {
+        for (int i = 0; i < count; i++){
+            if (readRawByte() == -1){
+                throw new EOFException("Unexpected end of gzip header");
+            }
+        }
+    }
+
+    private int readRawShort() throws IOException {
+        int low = readRawByte();
+        int high = readRawByte();
+        if (high == -1){
+            throw new EOFException("Unexpected end of gzip header");
+        }
+        return low | (high << 8);
+    }
+
+    private long readRawInt() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++){
+            int b = readRawByte();
+            if (b == -1){
+                throw new EOFException("Unexpected end of gzip trailer");
+            }
+            value |= ((long) b) << (8 * i);
+        }
+        return value;
+    }
+
+    private int readRawByte() throws IOException {
+        if (rawPosition == rawLimit && !fill()){
+            return -1;
+        }
+        return rawBuffer[rawPosition++] & 0xFF;
+    }
+
+    /*
+     * Refill raw buffer once everything in it has been used.
+     * @return  false at end of input
+     */
+    private boolean fill() throws IOException {
+        if (rawPosition < rawLimit){
+            return true;
+        }
+        rawBufferOffset += rawLimit;
+        rawPosition = 0;
+        rawLimit = 0;
+        int read = input.read(rawBuffer, 0, rawBuffer.length);
+        if (read <= 0){
+            return false;
+        }
+        rawLimit = read;
+        return true;
+    }
+}
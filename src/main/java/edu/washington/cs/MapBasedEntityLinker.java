@@ -1,26 +1,21 @@
 /* 
- * Uses a HashMap to find all the relevant entities for a given alias string
+ * Uses an AliasTable to find all the relevant entities for a given alias 
+ * string: an AliasDictionary loaded from an entity-alias file, or a 
+ * MappedAliasTable if given a table file
  * @author Laurel Hart
  */
 package edu.washington.cs;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 /*
- * @param entityAliases A HashMap where the keys are the alias strings, the values
- *                      are a list of candidate entities
+ * @param entityAliases Maps each alias string to its candidate entities
  *                      e.g., "John" -> ["John Smith", "John Doe", "John Appleseed"]
  */
 public class MapBasedEntityLinker implements Linker {
-    private HashMap<String, HashSet<String>> entityAliases;
+    private AliasTable entityAliases;
     private String outputExtension;
     private boolean VERBOSE = false;
 
@@ -32,11 +27,13 @@ public class MapBasedEntityLinker implements Linker {
     }
 
     /* 
-     * Load a file from which to form the entity-alias HashMap.
+     * Load a file from which to form the entity-alias dictionary.
      * @param aliasFile Expects a file with every line in the following format:
      *                  entity  alias
      *                  Can have more than one entity per alias, and more than one
      *                  alias per entity, but each pairing is on its own line.
+     *                  Or an alias table written by MappedAliasTable, which 
+     *                  is mapped instead of loaded.
      */
     public MapBasedEntityLinker(File entityAliasesFile, String outputExt) 
                                 throws IOException {
@@ -48,35 +45,19 @@ public class MapBasedEntityLinker implements Linker {
                                + " mean overwriting any input files.");
         }
 
-        BufferedReader reader = new BufferedReader(new FileReader(
-                                                           entityAliasesFile));
-        entityAliases = new HashMap<String, HashSet<String>>();
-
-        Pattern pattern = Pattern.compile("([^\\t]+)\\t([^\\t]+)");
-
-        String line = "";
-        while ((line = reader.readLine()) != null){
-            Matcher entityAliasMatcher = pattern.matcher(line);
-            if (entityAliasMatcher.matches()) {
-                String entity = entityAliasMatcher.group(1);
-                String alias = entityAliasMatcher.group(2);
-                if (entityAliases.containsKey(alias)){
-                        HashSet<String> entities = entityAliases.get(alias);
-                        entities.add(entity);
-                } else {
-                        HashSet<String> entities = new HashSet<String>();
-                        entities.add(entity);
-                        entityAliases.put(alias, entities);
-                }
-            }
+        if (MappedAliasTable.isTable(entityAliasesFile)){
+            entityAliases = new MappedAliasTable(entityAliasesFile);
+        } else {
+            entityAliases = new AliasDictionary(entityAliasesFile);
         }
-        reader.close();
         if (VERBOSE){
             //show that entities and aliases were properly
             //associated
-            for (String alias : entityAliases.keySet()){
-                for (String entity : entityAliases.get(alias)){
-                    System.out.println(alias + " " + entity);
+            for (int alias = 0; alias < entityAliases.size(); alias++){
+                for (int i = 0; i < entityAliases.candidateCount(alias); i++){
+                    System.out.println(entityAliases.alias(alias) + " " 
+                        + entityAliases.entity(entityAliases.candidate(alias,
+                                                                       i)));
                 }
             }
             System.out.println(entityAliases.size() + " aliases loaded.");
@@ -90,7 +71,8 @@ public class MapBasedEntityLinker implements Linker {
     public static void main(String[] args){
     	if ( args.length < 3 ){
             System.err.println("Required arguments: input file or directory, "
-                               + "output directory, entity aliases file.");
+                               + "output directory, entity aliases file "
+                               + "or alias table.");
             System.err.println("Too few arguments supplied. Exiting.");
             System.exit(1);
         }
@@ -146,9 +128,13 @@ public class MapBasedEntityLinker implements Linker {
             Sentence sentence = sentIter.next();
             mentions = 0;
             for (String mention : sentence.getMentionInstances()){
-                if (entityAliases.containsKey(mention)){
+                int alias = entityAliases.find(mention);
+                if (alias >= 0){
                     mentions++;
-                    for (String entity : entityAliases.get(mention)){
+                    for (int i = 0; i < entityAliases.candidateCount(alias); 
+                         i++){
+                        String entity = entityAliases.entity(
+                                        entityAliases.candidate(alias, i));
                         System.out.println("Entity found: " + entity);
                         sentence.addCandidate(mention, entity);
                     }
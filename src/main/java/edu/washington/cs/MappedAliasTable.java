@@ -0,0 +1,207 @@
+/*
+ * An alias table file, written by AliasDictionary.write(), mapped into
+ * memory instead of loaded: opening it reads only the header, the table
+ * stays outside the heap, and every process mapping the same file shares
+ * one copy of it in the page cache.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * The file holds the arrays of an AliasDictionary, big-endian, after a
+ * header of 8 ints: MAGIC, VERSION, number of aliases, of entities, of hash
+ * table slots and of entity-alias pairs, and the length in bytes of all
+ * aliases and of all entities. Then:
+ *   alias hash table   number + 1 of the alias in each slot, 0 if empty
+ *   alias hashes       String.hashCode() of each alias
+ *   alias offsets      start of each alias in the alias bytes, then the end
+ *   alias bytes        aliases in UTF-8, one after the other
+ *   candidate starts   start of the candidates of each alias, then the end
+ *   candidates         entity numbers of the candidates of each alias
+ *   entity offsets     start of each entity in the entity bytes, then the end
+ *   entity bytes       entities in UTF-8, one after the other
+ * Each section is mapped on its own, so the file may be over 2 GB. Lookups
+ * only read the buffers, so a table can be shared between threads.
+ */
+public class MappedAliasTable implements AliasTable {
+    static final int MAGIC = 0x416c5462;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private int aliasCount;
+    private int entityCount;
+    private IntBuffer table;
+    private IntBuffer hashes;
+    private IntBuffer aliasOffsets;
+    private ByteBuffer aliasBytes;
+    private IntBuffer candidateStart;
+    private IntBuffer candidates;
+    private IntBuffer entityOffsets;
+    private ByteBuffer entityBytes;
+
+    public MappedAliasTable(File tableFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(tableFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_BYTES){
+                throw new IOException(tableFile + " is not an alias table");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                            HEADER_BYTES);
+            if (header.getInt(0) != MAGIC){
+                throw new IOException(tableFile + " is not an alias table");
+            }
+            if (header.getInt(4) != VERSION){
+                throw new IOException("Alias table " + tableFile
+                                      + " has version " + header.getInt(4)
+                                      + ", expected " + VERSION);
+            }
+            aliasCount = header.getInt(8);
+            entityCount = header.getInt(12);
+            int slots = header.getInt(16);
+            int pairs = header.getInt(20);
+            int aliasByteCount = header.getInt(24);
+            int entityByteCount = header.getInt(28);
+            long length = HEADER_BYTES
+                          + 4L * (slots + aliasCount + (aliasCount + 1)
+                                  + (aliasCount + 1) + pairs
+                                  + (entityCount + 1))
+                          + aliasByteCount + entityByteCount;
+            if (channel.size() != length){
+                throw new IOException("Alias table " + tableFile + " is "
+                                      + channel.size() + " bytes, expected "
+                                      + length);
+            }
+
+            long position = HEADER_BYTES;
+            table = mapInts(channel, position, slots);
+            position += 4L * slots;
+            hashes = mapInts(channel, position, aliasCount);
+            position += 4L * aliasCount;
+            aliasOffsets = mapInts(channel, position, aliasCount + 1);
+            position += 4L * (aliasCount + 1);
+            aliasBytes = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                     aliasByteCount);
+            position += aliasByteCount;
+            candidateStart = mapInts(channel, position, aliasCount + 1);
+            position += 4L * (aliasCount + 1);
+            candidates = mapInts(channel, position, pairs);
+            position += 4L * pairs;
+            entityOffsets = mapInts(channel, position, entityCount + 1);
+            position += 4L * (entityCount + 1);
+            entityBytes = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                      entityByteCount);
+        } finally {
+            //the mappings stay valid once the file is closed
+            file.close();
+        }
+    }
+
+    /*
+     * Write the alias table of an entity-alias file. Will usually be run
+     * once, whenever the entity-alias file changes; MapBasedEntityLinker
+     * then takes the table file in place of the entity-alias file.
+     */
+    public static void main(String[] args) throws IOException {
+    	if ( args.length < 2 ){
+            System.err.println("Required arguments: entity aliases file, "
+                               + "alias table file to write.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        AliasDictionary dictionary = new AliasDictionary(new File(args[0]));
+        File tableFile = new File(args[1]);
+        dictionary.write(tableFile);
+        System.out.println(String.format("%d aliases, %d entities, %d pairs "
+                           + "written to %s in %.1f s (%d bytes)",
+                           dictionary.size(), dictionary.entityCount(),
+                           dictionary.pairCount(), tableFile,
+                           (System.nanoTime() - start) / 1e9,
+                           tableFile.length()));
+    }
+
+    /*
+     * Whether file starts like an alias table, rather than being an
+     * entity-alias file.
+     */
+    public static boolean isTable(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_BYTES){
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static IntBuffer mapInts(FileChannel channel, long position,
+                                     int count) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count)
+                      .asIntBuffer();
+    }
+
+    public int size(){
+        return aliasCount;
+    }
+
+    /*
+     * Number of distinct entities.
+     */
+    public int entityCount(){
+        return entityCount;
+    }
+
+    /*
+     * Probes the table as AliasDictionary does.
+     */
+    public int find(String alias){
+        int hash = alias.hashCode();
+        int mask = table.capacity() - 1;
+        int slot = AliasDictionary.mix(hash) & mask;
+        while (true){
+            int number = table.get(slot) - 1;
+            if (number < 0){
+                return -1;
+            }
+            if (hashes.get(number) == hash
+                && AliasDictionary.utf8Equals(aliasBytes,
+                                              aliasOffsets.get(number),
+                                              aliasOffsets.get(number + 1),
+                                              alias)){
+                return number;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public String alias(int alias){
+        return AliasDictionary.utf8String(aliasBytes, aliasOffsets.get(alias),
+                                          aliasOffsets.get(alias + 1));
+    }
+
+    public int candidateCount(int alias){
+        return candidateStart.get(alias + 1) - candidateStart.get(alias);
+    }
+
+    public int candidate(int alias, int i){
+        return candidates.get(candidateStart.get(alias) + i);
+    }
+
+    public String entity(int entity){
+        return AliasDictionary.utf8String(entityBytes,
+                                          entityOffsets.get(entity),
+                                          entityOffsets.get(entity + 1));
+    }
+}
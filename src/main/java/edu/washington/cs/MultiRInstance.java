@@ -225,6 +225,77 @@ class MultiRInstance {
         dependency = sentDepBuilder.toString();
     }
 
+    /*
+     * meta, tokenPOS, tokenNER, tokenOffset and sentDependency output, 
+     * straight from the columns, the same as addTokens, addPOS, addNER, 
+     * addTokenOffsets and addDependency would give.
+     */
+    public void addColumns(TokenColumns columns){
+        int length = columns.size();
+        StringBuilder builder = new StringBuilder();
+        builder.append(prefix);
+        builder.append(documentID);
+        builder.append("\t");
+        for (int i=0; i<length; i++){
+            if (i > 0){
+                builder.append(" ");
+            }
+            builder.append(columns.getWord(i));
+        }
+        sentenceMeta = builder.toString();
+
+        builder.setLength(0);
+        builder.append(prefix);
+        for (int i=0; i<length; i++){
+            if (i > 0){
+                builder.append(" ");
+            }
+            builder.append(columns.getPOS(i));
+        }
+        tokenPOS = builder.toString();
+
+        builder.setLength(0);
+        builder.append(prefix);
+        for (int i=0; i<length; i++){
+            if (i > 0){
+                builder.append(" ");
+            }
+            builder.append(columns.getNER(i));
+        }
+        tokenNER = builder.toString();
+
+        if (length > 0){
+            builder.setLength(0);
+            builder.append(prefix);
+            for (int i=0; i<length; i++){
+                if (i > 0){
+                    builder.append(" ");
+                }
+                builder.append(columns.getStart(i));
+                builder.append(":");
+                builder.append(columns.getEnd(i));
+            }
+            tokenOffsets = builder.toString();
+        }
+
+        int dependencies = columns.dependencyCount();
+        if (dependencies > 0){
+            builder.setLength(0);
+            builder.append(prefix);
+            for (int i=0; i<dependencies; i++){
+                if (i > 0){
+                    builder.append("|");
+                }
+                builder.append(columns.getDependencyStart(i));
+                builder.append(" ");
+                builder.append(columns.getDependencyLabel(i));
+                builder.append(" ");
+                builder.append(columns.getDependencyEnd(i));
+            }
+            dependency = builder.toString();
+        }
+    }
+
      /* relation output:
      * Entity1ID\tEntity1Start\tEntity1End\tEntity1Mention\tEntity2ID\tEntity2Start\tEntity2End\tEntity2Mention\tRelation 
      */
@@ -0,0 +1,398 @@
+/*
+ * Finds near-duplicate documents, e.g., the same wire story resent or
+ * lightly updated, so they can be dropped before the expensive NLP steps.
+ * Uses MinHash signatures over word shingles, and locality sensitive hashing
+ * (LSH) bands to find candidates without comparing every pair of documents.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Each document's text is cut into overlapping shingles of SHINGLE_LENGTH
+ * words (lowercased, punctuation ignored), and its MinHash signature is
+ * bands * rows minimum hash values of its shingles. Two documents with
+ * shingle set similarity (Jaccard) s share all rows of a band with
+ * probability s^rows, so they share at least one band with probability
+ * 1 - (1 - s^rows)^bands. This rises steeply around
+ * (1/bands)^(1/rows): about 0.78 for the default 12 bands of 10 rows, where
+ * documents with similarity 0.9 are caught 99% of the time, and 0.5 about 1%
+ * of the time.
+ *
+ * A document is a duplicate if it shares a band with a document seen before;
+ * only the bands of documents that are kept are stored. Bands are stored as
+ * 64 bit hashes in one open addressing table of primitives, about 200 bytes
+ * per kept document, so a multi-year corpus fits in memory. The table can be
+ * saved and read back to deduplicate across separate runs. Hash functions
+ * come from a fixed seed, so saved tables stay valid.
+ *
+ * @param tagOnly   Keep duplicates, marking them with the ID of the document
+ *                  they duplicate, instead of dropping them. Requires
+ *                  remembering the ID of every kept document.
+ * @param keys      Band hashes; 0 marks an empty slot
+ * @param values    Number of the first kept document with each band
+ */
+public class NearDuplicateFilter {
+    public static final int SHINGLE_LENGTH = 5;
+    private static final long SEED = 0x5EEDL;
+    private static final int MAGIC = 0x4C534831;
+
+    private boolean VERBOSE = false;
+    private boolean tagOnly = false;
+    private int bands;
+    private int rows;
+    private long[] multipliers;
+    private long[] increments;
+    private long[] signature;
+    private long[] shingle;
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+    private int kept = 0;
+    private ArrayList<String> keptIDs;
+
+    private long docsSeen = 0;
+    private long docsFound = 0;
+    private long docsDropped = 0;
+    private long charsSeen = 0;
+    private long charsDropped = 0;
+
+    public NearDuplicateFilter(){
+        this(12, 10);
+    }
+
+    public NearDuplicateFilter(int bandCount, int rowCount){
+        bands = bandCount;
+        rows = rowCount;
+        multipliers = new long[bands * rows];
+        increments = new long[bands * rows];
+        Random random = new Random(SEED);
+        for (int i = 0; i < multipliers.length; i++){
+            multipliers[i] = random.nextLong() | 1;
+            increments[i] = random.nextLong();
+        }
+        signature = new long[bands * rows];
+        shingle = new long[SHINGLE_LENGTH];
+        keys = new long[1 << 16];
+        values = new int[keys.length];
+        keptIDs = new ArrayList<String>();
+    }
+
+    public void setVerbose(boolean verbose){
+        VERBOSE = verbose;
+    }
+
+    /*
+     * Set whether to mark duplicates (AnnotatedDoc.setDuplicateOf) rather
+     * than only report them.
+     */
+    public void setTagOnly(boolean tag){
+        tagOnly = tag;
+    }
+
+    public static void main(String[] args) throws Exception {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: input file or directory."
+                               + " Optional: bands, rows.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+        NearDuplicateFilter filter = new NearDuplicateFilter();
+        if (args.length > 2){
+            filter = new NearDuplicateFilter(Integer.parseInt(args[1]),
+                                             Integer.parseInt(args[2]));
+        }
+        filter.setTagOnly(true);
+        GigawordScannerConverter converter = new GigawordScannerConverter();
+        for (File file : Utils.findFiles(new File(args[0]))){
+            if (file.getName().endsWith(GigawordIndex.EXTENSION)){
+                continue;
+            }
+            AnnotatedDocSource docs = converter.open(file);
+            try {
+                while (docs.hasNext()){
+                    AnnotatedDoc doc = docs.next();
+                    filter.isDuplicate(doc);
+                    if (doc.getDuplicateOf() != null){
+                        System.out.println(doc.getID() + "\t"
+                                           + doc.getDuplicateOf());
+                    }
+                }
+            } finally {
+                docs.close();
+            }
+        }
+        filter.report(System.err, 0);
+    }
+
+    /*
+     * Check doc against every document seen so far, and remember it if it
+     * is not a duplicate. In tag-only mode a duplicate is marked and kept.
+     * @return  true if doc should be dropped: it is a near-duplicate of an
+     *          earlier document, and duplicates are not only tagged
+     */
+    public boolean isDuplicate(AnnotatedDoc doc){
+        int length = sign(doc);
+        docsSeen++;
+        charsSeen += length;
+        if (length == 0){
+            //nothing to compare
+            return false;
+        }
+        long[] bandKeys = new long[bands];
+        for (int band = 0; band < bands; band++){
+            bandKeys[band] = bandKey(band);
+            int slot = find(bandKeys[band]);
+            if (keys[slot] != 0){
+                docsFound++;
+                String original = values[slot] < keptIDs.size()
+                                  ? keptIDs.get(values[slot]) : "";
+                if (VERBOSE){
+                    System.out.println("Near-duplicate " + doc.getID()
+                                       + " of " + original);
+                }
+                if (tagOnly){
+                    doc.setDuplicateOf(original);
+                    return false;
+                }
+                docsDropped++;
+                charsDropped += length;
+                return true;
+            }
+        }
+        for (long key : bandKeys){
+            put(key, kept);
+        }
+        if (tagOnly){
+            keptIDs.add(doc.getID());
+        }
+        kept++;
+        return false;
+    }
+
+    public long getDocsSeen(){
+        return docsSeen;
+    }
+
+    /*
+     * Number of near-duplicates found, whether dropped or only tagged.
+     */
+    public long getDocsFound(){
+        return docsFound;
+    }
+
+    public long getDocsDropped(){
+        return docsDropped;
+    }
+
+    public long getCharsSeen(){
+        return charsSeen;
+    }
+
+    public long getCharsDropped(){
+        return charsDropped;
+    }
+
+    /*
+     * Print how many documents were found to be duplicates, and how much
+     * NLP time dropping them saved.
+     * @param nanosPerChar  Measured NLP cost of a character of text, or 0 if
+     *                      not known
+     */
+    public void report(PrintStream out, double nanosPerChar){
+        out.println(String.format("Near-duplicates: %d of %d documents, "
+                    + "%d dropped (%.1f%% of text)", docsFound, docsSeen,
+                    docsDropped,
+                    100.0 * charsDropped / Math.max(1, charsSeen)));
+        if (nanosPerChar > 0){
+            out.println(String.format("Estimated NLP time saved: %.1f s",
+                        charsDropped * nanosPerChar / 1e9));
+        }
+    }
+
+    /*
+     * Compute MinHash signature of doc's text into signature.
+     * @return  number of characters in doc, 0 if it has no words
+     */
+    private int sign(AnnotatedDoc doc){
+        for (int i = 0; i < signature.length; i++){
+            signature[i] = Long.MAX_VALUE;
+        }
+        int words = 0;
+        int length = 0;
+        for (Sentence sentence : doc.getSentences()){
+            String text = sentence.getSentence();
+            length += text.length();
+            int i = 0;
+            while (i < text.length()){
+                while (i < text.length()
+                       && !Character.isLetterOrDigit(text.charAt(i))){
+                    i++;
+                }
+                if (i == text.length()){
+                    break;
+                }
+                //FNV-1a of lowercased word
+                long word = 0xcbf29ce484222325L;
+                while (i < text.length()
+                       && Character.isLetterOrDigit(text.charAt(i))){
+                    word ^= Character.toLowerCase(text.charAt(i++));
+                    word *= 0x100000001b3L;
+                }
+                shingle[words % SHINGLE_LENGTH] = word;
+                words++;
+                if (words >= SHINGLE_LENGTH){
+                    addShingle(words, SHINGLE_LENGTH);
+                }
+            }
+        }
+        if (words == 0){
+            return 0;
+        }
+        if (words < SHINGLE_LENGTH){
+            //too short for a whole shingle, so use all of it
+            addShingle(words, words);
+        }
+        return length;
+    }
+
+    /*
+     * Add the shingle of the last count words, ending with word number
+     * words, to the signature.
+     */
+    private void addShingle(int words, int count){
+        long hash = 0;
+        for (int j = words - count; j < words; j++){
+            hash = (hash + shingle[j % SHINGLE_LENGTH]) * 0x9E3779B97F4A7C15L;
+        }
+        hash = mix(hash);
+        for (int i = 0; i < signature.length; i++){
+            long value = hash * multipliers[i] + increments[i];
+            if (value < signature[i]){
+                signature[i] = value;
+            }
+        }
+    }
+
+    /*
+     * Hash of one band of the signature, never 0.
+     */
+    private long bandKey(int band){
+        long hash = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++){
+            hash = (hash + signature[i]) * 0x9E3779B97F4A7C15L;
+        }
+        hash = mix(hash);
+        return hash == 0 ? 1 : hash;
+    }
+
+    /*
+     * Finalizer from MurmurHash3, so all bits of the result depend on all
+     * bits of the input.
+     */
+    private static long mix(long hash){
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /*
+     * Slot holding key, or the empty slot where it would go.
+     */
+    private int find(long key){
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (keys[slot] != 0 && keys[slot] != key){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void put(long key, int value){
+        int slot = find(key);
+        if (keys[slot] == 0){
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            if (size * 4 > keys.length * 3){
+                grow();
+            }
+        }
+    }
+
+    private void grow(){
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldKeys[i] != 0){
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /*
+     * Save the documents seen so far, so a later run can be checked against
+     * them. IDs of kept documents are not saved.
+     */
+    public void write(File output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                               new FileOutputStream(output)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(bands);
+            out.writeInt(rows);
+            out.writeInt(kept);
+            out.writeInt(size);
+            for (int i = 0; i < keys.length; i++){
+                if (keys[i] != 0){
+                    out.writeLong(keys[i]);
+                    out.writeInt(values[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Read back a filter saved by write(File).
+     */
+    public static NearDuplicateFilter read(File input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                             new FileInputStream(input)));
+        try {
+            if (in.readInt() != MAGIC){
+                throw new IOException(input + " is not a saved "
+                                      + "NearDuplicateFilter");
+            }
+            NearDuplicateFilter filter = new NearDuplicateFilter(
+                                         in.readInt(), in.readInt());
+            filter.kept = in.readInt();
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++){
+                filter.put(in.readLong(), in.readInt());
+            }
+            return filter;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Text of the paragraph being collected by GigawordCorpusHandler or
+ * GigawordScannerConverter, with its offsets in the source document.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.util.Arrays;
+
+/*
+ * Text added from a GigawordScanner also keeps where decoded entities
+ * make the text shorter than the input (see Sentence.sourceOffset), so
+ * sentences split from the paragraph can be given source offsets.
+ *
+ * @param start         Offset of the paragraph relative to its document
+ * @param end           Offset just past the paragraph
+ * @param shiftIndexes  Indexes in text from which its chars are further from
+ *                      start in the input than in text
+ * @param shifts        How much further, from each of shiftIndexes on
+ */
+class ParagraphText {
+    private StringBuilder text = new StringBuilder();
+    private int start = 0;
+    private int end = 0;
+    private int[] shiftIndexes = new int[16];
+    private int[] shifts = new int[16];
+    private int shiftCount = 0;
+
+    void clear(){
+        text.setLength(0);
+        shiftCount = 0;
+    }
+
+    int length(){
+        return text.length();
+    }
+
+    int getStart(){
+        return start;
+    }
+
+    void setStart(int paragraphStart){
+        start = paragraphStart;
+    }
+
+    int getEnd(){
+        return end;
+    }
+
+    void setEnd(int paragraphEnd){
+        end = paragraphEnd;
+    }
+
+    /*
+     * Add text whose offsets are set by the caller.
+     */
+    void append(char[] ch, int from, int length){
+        text.append(ch, from, length);
+    }
+
+    /*
+     * Add the text of the scanner's current TEXT event, taking offsets from
+     * the scanner.
+     * @param docCharStart  Character offset of the document in the input
+     */
+    void append(GigawordScanner scanner, long docCharStart){
+        int textStart = (int) (scanner.getCharOffset() - docCharStart);
+        if (text.length() == 0){
+            start = textStart;
+            shiftCount = 0;
+        }
+        end = (int) (scanner.getEndCharOffset() - docCharStart);
+        //offset of this text in the input, relative to where it would be if
+        //the paragraph so far had no entities
+        int textShift = textStart - start - text.length();
+        addShift(text.length(), textShift);
+        for (int i = 0; i < scanner.getTextShiftCount(); i++){
+            int index = scanner.getTextShiftIndex(i);
+            addShift(text.length() + index,
+                     textShift + scanner.getTextOffset(index) - index);
+        }
+        text.append(scanner.getTextCharacters(), 0, scanner.getTextLength());
+    }
+
+    /*
+     * Note that from text index on, text is shift further from start in
+     * the input than in the text, unless it already is.
+     */
+    private void addShift(int index, int shift){
+        if (shift == (shiftCount == 0 ? 0 : shifts[shiftCount - 1])){
+            return;
+        }
+        if (shiftCount == shifts.length){
+            shiftIndexes = Arrays.copyOf(shiftIndexes, 2 * shiftCount);
+            shifts = Arrays.copyOf(shifts, 2 * shiftCount);
+        }
+        shiftIndexes[shiftCount] = index;
+        shifts[shiftCount++] = shift;
+    }
+
+    /*
+     * Sentence of the paragraph, with its shifts if there are any.
+     */
+    Sentence toSentence(){
+        Sentence sentence = new Sentence(text.toString(), start, end);
+        if (shiftCount > 0){
+            sentence.setSourceShifts(Arrays.copyOf(shiftIndexes, shiftCount),
+                                     Arrays.copyOf(shifts, shiftCount));
+        }
+        return sentence;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Decompresses a multi-member gzip file with several threads.
+ * Members are read from the file in order by the reading thread, inflated in
+ * a thread pool, and handed back in order, so the output is exactly what
+ * GZIPInputStream would give.
+ * Member boundaries have to be known without inflating: either the members
+ * are BGZF blocks (see BlockGzipOutputStream), whose headers give their size,
+ * or the compressed offsets of the members are passed in, e.g. from a
+ * GigawordIndex. An ordinary gzip file is a single member, and can only be
+ * decompressed sequentially; if boundaries can not be found the rest of the
+ * file is read with GzipMemberInputStream instead.
+ * Members are read and inflated whole, so the members waiting to be read
+ * are limited to about MAX_PENDING_BYTES, compressed and decompressed, and
+ * from a member of over MAX_MEMBER_BYTES on, the rest of the file is also
+ * decompressed sequentially.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/*
+ * @param memberOffsets Compressed offsets of the members, or null to rely on
+ *                      BGZF headers
+ * @param pending       Members being inflated, in file order. Bounded so that
+ *                      a slow reader does not pile up decompressed data.
+ * @param pendingSizes  Compressed plus decompressed size of each pending
+ *                      member, as given by its trailer
+ * @param pendingBytes  Sum of pendingSizes
+ * @param tail          Sequential reader for the rest of the file, once
+ *                      member boundaries are unknown
+ */
+public class ParallelGzipInputStream extends InputStream {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    static final long MAX_PENDING_BYTES = 64L << 20;
+    static final int MAX_MEMBER_BYTES = 16 << 20;
+
+    private InputStream input;
+    private long[] memberOffsets;
+    private int memberIndex = 0;
+    private long rawPosition = 0;
+    private ExecutorService pool;
+    private ArrayDeque<Future<byte[]>> pending;
+    private int maxPending;
+    private ArrayDeque<Long> pendingSizes;
+    private long pendingBytes = 0;
+    private InputStream tail = null;
+    private boolean rawFinished = false;
+    private byte[] current = new byte[0];
+    private int currentPosition = 0;
+    private byte[] single = new byte[1];
+
+    /*
+     * Decompress BGZF blocks.
+     */
+    public ParallelGzipInputStream(InputStream compressed, int threads){
+        this(compressed, null, threads);
+    }
+
+    /*
+     * @param members   {compressed offset, decompressed offset} of each
+     *                  member, as in GigawordIndex or GzipMemberInputStream,
+     *                  or null
+     */
+    public ParallelGzipInputStream(InputStream compressed,
+                                   List<long[]> members, int threads){
+        input = compressed;
+        if (members != null){
+            memberOffsets = new long[members.size()];
+            for (int i = 0; i < memberOffsets.length; i++){
+                memberOffsets[i] = members.get(i)[0];
+            }
+        }
+        pool = Utils.newDaemonPool(threads, "gunzip");
+        maxPending = Math.max(threads, 1) * 4;
+        pending = new ArrayDeque<Future<byte[]>>();
+        pendingSizes = new ArrayDeque<Long>();
+    }
+
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0){
+            return 0;
+        }
+        while (currentPosition == current.length){
+            if (!nextMember()){
+                return tail == null ? -1 : tail.read(bytes, offset, length);
+            }
+        }
+        int read = Math.min(length, current.length - currentPosition);
+        System.arraycopy(current, currentPosition, bytes, offset, read);
+        currentPosition += read;
+        return read;
+    }
+
+    public void close() throws IOException {
+        pool.shutdownNow();
+        pending.clear();
+        pendingSizes.clear();
+        pendingBytes = 0;
+        if (tail != null){
+            tail.close();
+        }
+        input.close();
+    }
+
+    /*
+     * Move on to the next decompressed member, queueing up more members.
+     * @return  false when there are no more members to be inflated in the
+     *          pool
+     */
+    private boolean nextMember() throws IOException {
+        while (!rawFinished && pending.size() < maxPending
+               && pendingBytes < MAX_PENDING_BYTES){
+            final byte[] member = readMember();
+            if (member == null){
+                rawFinished = true;
+                break;
+            }
+            pending.add(pool.submit(new Callable<byte[]>(){
+                public byte[] call() throws IOException {
+                    return inflate(member);
+                }
+            }));
+            long size = member.length + inflatedSize(member);
+            pendingSizes.add(size);
+            pendingBytes += size;
+        }
+        if (pending.isEmpty()){
+            return false;
+        }
+        pendingBytes -= pendingSizes.poll();
+        try {
+            current = pending.poll().get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing", e);
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof IOException){
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to decompress", e.getCause());
+        }
+        currentPosition = 0;
+        return true;
+    }
+
+    /*
+     * Read the next complete member from the compressed file.
+     * @return  null at end of file, or if the size of the member is unknown
+     *          or over MAX_MEMBER_BYTES, compressed or decompressed, in which
+     *          case tail is set up to read the rest of the file
+     */
+    private byte[] readMember() throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(32);
+        int first = readRaw(header);
+        int second = readRaw(header);
+        if (first == -1){
+            return null;
+        }
+        if ((first | (second << 8)) != GZIPInputStream.GZIP_MAGIC){
+            if (rawPosition == 2){
+                throw new ZipException("Not in gzip format");
+            }
+            //trailing garbage, ignored as GZIPInputStream does
+            return null;
+        }
+        long start = rawPosition - 2;
+        int size = -1;
+        for (int i = 0; i < 8; i++){
+            readRaw(header);
+        }
+        byte[] bytes = header.toByteArray();
+        if (bytes.length == 10 && (bytes[3] & FEXTRA) != 0){
+            int extraLength = readRaw(header) | (readRaw(header) << 8);
+            byte[] extra = new byte[extraLength];
+            readFully(extra);
+            header.write(extra, 0, extraLength);
+            size = blockSize(extra);
+        }
+        if (size == -1){
+            size = knownSize(start);
+        }
+        if (size == -1 || size > MAX_MEMBER_BYTES){
+            //member can only be found by inflating it, or is too large to
+            //hold whole, so from here on decompress in this thread
+            tail = new GzipMemberInputStream(new SequenceInputStream(
+                   new ByteArrayInputStream(header.toByteArray()), input));
+            return null;
+        }
+        byte[] member = new byte[size];
+        int headerLength = header.size();
+        if (headerLength > size){
+            throw new ZipException("Corrupt gzip member (bad block size)");
+        }
+        System.arraycopy(header.toByteArray(), 0, member, 0, headerLength);
+        readFully(member, headerLength, size - headerLength);
+        if (inflatedSize(member) > MAX_MEMBER_BYTES){
+            tail = new GzipMemberInputStream(new SequenceInputStream(
+                   new ByteArrayInputStream(member), input));
+            return null;
+        }
+        return member;
+    }
+
+    /*
+     * Decompressed size of a complete member, from its trailer. Only the
+     * low 32 bits of the size are kept there.
+     */
+    private static long inflatedSize(byte[] member){
+        return member.length < 18 ? 0 : readInt(member, member.length - 4);
+    }
+
+    /*
+     * BGZF block size from the "BC" subfield of a header's extra field.
+     * @return  -1 if there is none
+     */
+    private static int blockSize(byte[] extra){
+        int i = 0;
+        while (i + 4 <= extra.length){
+            int subfieldLength = (extra[i + 2] & 0xFF)
+                                 | ((extra[i + 3] & 0xFF) << 8);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2
+                && i + 6 <= extra.length){
+                return ((extra[i + 4] & 0xFF) | ((extra[i + 5] & 0xFF) << 8))
+                       + 1;
+            }
+            i += 4 + subfieldLength;
+        }
+        return -1;
+    }
+
+    /*
+     * Size of the member starting at start, from the given member offsets.
+     * The last member runs to the end of the file, so its size is unknown.
+     * @return  -1 if unknown
+     */
+    private int knownSize(long start){
+        if (memberOffsets == null){
+            return -1;
+        }
+        while (memberIndex < memberOffsets.length
+               && memberOffsets[memberIndex] < start){
+            memberIndex++;
+        }
+        if (memberIndex + 1 >= memberOffsets.length
+            || memberOffsets[memberIndex] != start){
+            return -1;
+        }
+        long size = memberOffsets[memberIndex + 1] - start;
+        return size > Integer.MAX_VALUE ? -1 : (int) size;
+    }
+
+    /*
+     * Inflate one complete member, checking it against its trailer.
+     */
+    static byte[] inflate(byte[] member) throws IOException {
+        int position = 10;
+        int flags = member[3] & 0xFF;
+        if (member[2] != 8){
+            throw new ZipException("Unsupported compression method");
+        }
+        if ((flags & FEXTRA) != 0){
+            position += 2 + ((member[10] & 0xFF) | ((member[11] & 0xFF) << 8));
+        }
+        if ((flags & FNAME) != 0){
+            while (member[position++] != 0){
+            }
+        }
+        if ((flags & FCOMMENT) != 0){
+            while (member[position++] != 0){
+            }
+        }
+        if ((flags & FHCRC) != 0){
+            position += 2;
+        }
+        int expectedSize = (int) readInt(member, member.length - 4);
+        byte[] output = new byte[Math.max(expectedSize, 0)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, position, member.length - position);
+            int length = 0;
+            while (!inflater.finished()){
+                if (length == output.length){
+                    //trailer size was wrong; grow so the CRC check reports it
+                    byte[] larger = new byte[output.length * 2 + 1024];
+                    System.arraycopy(output, 0, larger, 0, length);
+                    output = larger;
+                }
+                int read = inflater.inflate(output, length,
+                                            output.length - length);
+                if (read == 0 && (inflater.needsInput()
+                                  || inflater.needsDictionary())){
+                    throw new EOFException("Unexpected end of gzip member");
+                }
+                length += read;
+            }
+            int trailer = member.length - inflater.getRemaining();
+            if (trailer + 8 > member.length){
+                throw new EOFException("Unexpected end of gzip trailer");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(output, 0, length);
+            if (readInt(member, trailer) != crc.getValue()){
+                throw new ZipException("Corrupt gzip member (bad CRC)");
+            }
+            if (readInt(member, trailer + 4) != (length & 0xFFFFFFFFL)){
+                throw new ZipException("Corrupt gzip member (bad length)");
+            }
+            if (length != output.length){
+                byte[] exact = new byte[length];
+                System.arraycopy(output, 0, exact, 0, length);
+                output = exact;
+            }
+        } catch (DataFormatException e){
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return output;
+    }
+
+    private static long readInt(byte[] bytes, int offset){
+        long value = 0;
+        for (int i = 0; i < 4; i++){
+            value |= ((long) (bytes[offset + i] & 0xFF)) << (8 * i);
+        }
+        return value;
+    }
+
+    private int readRaw(ByteArrayOutputStream header) throws IOException {
+        int b = input.read();
+        if (b != -1){
+            rawPosition++;
+            header.write(b);
+        }
+        return b;
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    private void readFully(byte[] bytes, int offset, int count)
+                           throws IOException {
+        while (count > 0){
+            int read = input.read(bytes, offset, count);
+            if (read < 0){
+                throw new EOFException("Unexpected end of gzip file");
+            }
+            rawPosition += read;
+            offset += read;
+            count -= read;
+        }
+    }
+}
@@ -18,7 +18,11 @@ public class PipelineDemo {
         //set this up here because same class must be used for multiple parts
     	docProc = new CoreNLPProcessor(processingExtension);
         //docProc.setXMLOutput(true);
+        //docProc.setAnnotationOutput(true);
         docProc.setVerbose(VERBOSE);
+        if (VERBOSE){
+            docProc.printLoadTimes(System.out);
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,108 @@
+/*
+ * Times CoreNLPProcessor preprocessing of a corpus file with and without
+ * staged annotation, with whole articles tagged at once, and with mentions
+ * found by alias instead of NER, so the modes can be compared on real 
+ * data, e.g., a day's worth of Gigaword (a whole month file takes hours).
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/*
+ * The models are loaded once, and the file is preprocessed once to warm up.
+ * Then the modes are run in turn the given number of times; the gazetteer 
+ * mode only if an alias file is given. Statistics are reported for the 
+ * last run, which is staged: the share of sentences of invalid length is 
+ * the share that staged mode does not tag.
+ */
+public class PreprocessBenchmark {
+    private CoreNLPProcessor processor;
+    private AliasMatcher gazetteer = null;
+    private int repetitions;
+    private static final String[] MODES = {"gazetteer, no NER",
+                                           "all annotators at once",
+                                           "staged",
+                                           "staged, article batches"};
+    private long[] totalNanos = new long[MODES.length];
+    private long[] bestNanos = new long[MODES.length];
+    private int[] articles = new int[MODES.length];
+
+    public PreprocessBenchmark(int reps){
+        repetitions = reps;
+        Arrays.fill(bestNanos, Long.MAX_VALUE);
+        processor = new CoreNLPProcessor();
+    }
+
+    public static void main(String[] args) throws Exception {
+    	if ( args.length < 1 ){
+            System.err.println("Required arguments: input file. "
+                               + "Optional: repetitions, entity aliases "
+                               + "file.");
+            System.err.println("Too few arguments supplied. Exiting.");
+            System.exit(1);
+        }
+    	File input = new File(args[0]);
+        int reps = 1;
+        if (args.length > 1){
+            reps = Integer.parseInt(args[1]);
+        }
+
+        PreprocessBenchmark benchmark = new PreprocessBenchmark(reps);
+        if (args.length > 2){
+            benchmark.setGazetteer(new AliasMatcher(new File(args[2])));
+        }
+        benchmark.run(input);
+        benchmark.report(System.out);
+    }
+
+    /*
+     * Also time preprocessing with mentions found by the given aliases.
+     */
+    public void setGazetteer(AliasMatcher matcher){
+        gazetteer = matcher;
+    }
+
+    public void run(File input) throws Exception {
+        System.out.println("Benchmarking preprocessing of " + input + " ("
+                           + input.length() + " bytes)");
+        //warm up
+        processor.preprocess(input);
+        for (int i = 0; i < repetitions; i++){
+            for (int mode = gazetteer == null ? 1 : 0; mode < MODES.length;
+                 mode++){
+                processor.setGazetteer(mode == 0 ? gazetteer : null);
+                processor.setStaged(mode > 1);
+                //a batch size of 0 tags a whole article at once
+                processor.setBatchSize(mode == 3 ? 0 : 1);
+                processor.resetStatistics();
+                long start = System.nanoTime();
+                articles[mode] = processor.preprocess(input).size();
+                long elapsed = System.nanoTime() - start;
+                totalNanos[mode] += elapsed;
+                bestNanos[mode] = Math.min(bestNanos[mode], elapsed);
+            }
+        }
+    }
+
+    public void report(PrintStream out){
+        for (int mode = gazetteer == null ? 1 : 0; mode < MODES.length;
+             mode++){
+            out.println(String.format("%-24s %6d articles  best %9.1f s  "
+                        + "mean %9.1f s", MODES[mode], articles[mode],
+                        bestNanos[mode] / 1e9,
+                        totalNanos[mode] / 1e9 / repetitions));
+        }
+        out.println(String.format("Staged speedup: %.2fx",
+                    (double) bestNanos[1] / bestNanos[2]));
+        out.println(String.format("Article batch speedup over staged: %.2fx",
+                    (double) bestNanos[2] / bestNanos[3]));
+        if (gazetteer != null){
+            out.println(String.format("Gazetteer speedup over staged: %.2fx",
+                        (double) bestNanos[2] / bestNanos[0]));
+        }
+        processor.printStatistics(out);
+    }
+}
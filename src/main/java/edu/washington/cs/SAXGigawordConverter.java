@@ -6,6 +6,10 @@ package edu.washington.cs;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.SAXParser;
@@ -18,12 +22,63 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 public class SAXGigawordConverter implements CorpusConverter {
+    /*
+     * Whether input files have a single root element.
+     * DETECT looks at the start of each file to decide. Raw Gigaword files
+     * start directly with <DOC and are treated as ROOTLESS.
+     */
+    public enum Dialect { DETECT, ROOTED, ROOTLESS }
+
+    /*
+     * How far into a file to look for its first element when detecting
+     */
+    private static final int SNIFF_LENGTH = 8192;
+
+    /*
+     * How many documents open() lets the parser get ahead
+     */
+    private static final int QUEUE_LENGTH = 64;
+
     private boolean VERBOSE = false;
+    private boolean trackOffsets = false;
+    private Dialect dialect = Dialect.DETECT;
+    private int decompressionThreads = 
+                Runtime.getRuntime().availableProcessors();
 
     public void setVerbose(boolean verbose){
         VERBOSE = verbose;
     }
 
+    /*
+     * Set whether to parse with GigawordScanner, which gives true offsets in
+     * the raw file, instead of the Java SAX parser.
+     * Sentence offsets are then relative to the document's <DOC> tag, and
+     * AnnotatedDocs record their byte offset and length in the (decompressed)
+     * input file. The scanner does not need a root, so dialect is ignored.
+     * @see GigawordCorpusHandler#setOffsetTracker(GigawordScanner)
+     */
+    public void setTrackOffsets(boolean track){
+        trackOffsets = track;
+    }
+
+    /*
+     * Set how many threads to decompress gzipped inputs with. Only helps for
+     * block-gzipped (BGZF) inputs, or inputs with a GigawordIndex made of
+     * several gzip members. Defaults to the number of processors.
+     * @see Utils#gzipCheck(File, int)
+     */
+    public void setDecompressionThreads(int threads){
+        decompressionThreads = threads;
+    }
+
+    /*
+     * Tell converter whether inputs need a root added, instead of having it
+     * check each file. 
+     */
+    public void setDialect(Dialect inputDialect){
+        dialect = inputDialect;
+    }
+
     public static void main(String[] args){
     	if ( args.length < 1 ){
             System.err.println("Required arguments: input file.");
@@ -43,52 +98,304 @@ public class SAXGigawordConverter implements CorpusConverter {
 
     public ArrayList<AnnotatedDoc> convert(File input) throws IOException, 
                                 SAXException, ParserConfigurationException {
-        
+        GigawordCorpusHandler handler = new GigawordCorpusHandler();
+        if (!parse(input, handler)){
+            return new ArrayList<AnnotatedDoc>();
+        }
+
+        ArrayList<AnnotatedDoc> docs = handler.getText();
+
+        return docs;
+    }
+
+    /*
+     * Streaming version of convert(File). Each AnnotatedDoc is passed to 
+     * consumer as soon as it has been parsed, and is not kept afterwards. 
+     * Exceptions thrown by consumer are passed on to the caller.
+     */
+    public void convert(File input, AnnotatedDocConsumer consumer) 
+                        throws Exception {
+        GigawordCorpusHandler handler = new GigawordCorpusHandler(consumer);
+        try {
+            parse(input, handler);
+        } catch (SAXException ex){
+            if (ex.getException() != null){
+                throw ex.getException();
+            }
+            throw ex;
+        }
+    }
+
+    /*
+     * Convert only the documents with the given IDs. Each one is read 
+     * straight from its offset in input, using the GigawordIndex next to 
+     * input, which is built and saved the first time it is needed.
+     * Documents are always parsed with GigawordScanner, so offsets are as for
+     * setTrackOffsets(true). IDs that are not in input are ignored.
+     * @return  AnnotatedDocs in the order they appear in input
+     */
+    public ArrayList<AnnotatedDoc> convert(File input, 
+                                           Collection<String> docIDs) 
+                                           throws IOException, SAXException {
+        GigawordIndex index = GigawordIndex.forFile(input);
+        if (VERBOSE){
+            for (String docID : docIDs){
+                if (!index.contains(docID)){
+                    System.out.println("No document " + docID + " in "
+                                       + input);
+                }
+            }
+        }
+        GigawordCorpusHandler handler = new GigawordCorpusHandler();
+        handler.setVerbose(VERBOSE);
+        for (byte[] document : index.readDocuments(input, docIDs)){
+            GigawordScanner scanner = new GigawordScanner(
+                                      new ByteArrayInputStream(document));
+            handler.setOffsetTracker(scanner);
+            scanner.parse(handler);
+        }
+        ArrayList<AnnotatedDoc> docs = handler.getText();
+        //scanner only saw the document itself, so offset needs adjusting
+        for (AnnotatedDoc doc : docs){
+            doc.setSourceOffset(index.getOffset(doc.getID()));
+        }
+        return docs;
+    }
+
+    /*
+     * Run handler over input. Input is only read and parsed once: a root is
+     * added up front if the dialect calls for it.
+     * @return  false if the document could not be parsed
+     */
+    private boolean parse(File input, GigawordCorpusHandler handler)
+                          throws IOException, SAXException, 
+                          ParserConfigurationException {
+        if (trackOffsets){
+            return scan(input, handler);
+        }
     	SAXParserFactory factory = SAXParserFactory.newInstance();
         SAXParser parser = factory.newSAXParser();
-        GigawordCorpusHandler handler = new GigawordCorpusHandler();
         handler.setVerbose(VERBOSE);
 
-        // Try parsing, but Gigaword docs usually need a root added
+        PushbackInputStream inputStream = new PushbackInputStream(
+                                          Utils.gzipCheck(input, 
+                                          decompressionThreads), SNIFF_LENGTH);
         try {
-            InputStream inputStream = Utils.gzipCheck(input);
-            InputStreamReader reader = new InputStreamReader(inputStream);
-            InputSource is = new InputSource(reader);
-            parser.parse(is, handler);
-            inputStream.close();
-        } catch (SAXException ex){
-            //add a root and try to parse again
-            try {
-                InputStream inputStream = Utils.gzipCheck(input);
-                InputStreamReader reader = addRoot(inputStream);
-                InputSource is = new InputSource(reader);
-                //get rid of collected text from previous attempt to parse
-                handler.clear();
+            boolean rootless = dialect == Dialect.ROOTLESS;
+            if (dialect == Dialect.DETECT){
+                rootless = needsRoot(inputStream);
+            }
+            InputSource source;
+            if (rootless){
+                // Gigaword docs usually need a root added
+                source = new InputSource(addRoot(inputStream));
                 //added <ROOT> to beginning of document, so need to adjust
                 //offsets
                 handler.setOffset(6);
-                parser.parse(is, handler);
-                inputStream.close();
-            } catch (Exception rootFail){
-            //if adding a root doesn't help, give up.
-                System.out.println("Cannot parse this document due to " + rootFail);
-                ArrayList<AnnotatedDoc> newDoc = new ArrayList<AnnotatedDoc>();
-                return newDoc;
+            } else {
+                //let the parser pick the encoding from the XML declaration
+                source = new InputSource(inputStream);
+            }
+            if (VERBOSE){
+                System.out.println("Parsing " + input 
+                                   + (rootless ? " with added root" : ""));
+            }
+            parser.parse(source, handler);
+        } catch (SAXException ex){
+            if (ex.getException() != null){
+                //failure came from handler's consumer, not the document
+                throw ex;
             }
+            System.out.println("Cannot parse this document due to " + ex);
+            return false;
         } catch (Exception ex){
             System.out.println("Cannot parse this document due to " + ex);
-            ArrayList<AnnotatedDoc> newDoc = new ArrayList<AnnotatedDoc>();
-            return newDoc;
+            return false;
+        } finally {
+            inputStream.close();
         }
+        return true;
+    }
 
-        ArrayList<AnnotatedDoc> docs = handler.getText();
+    /*
+     * Run handler over input using GigawordScanner, with handler taking its
+     * offsets from the scanner.
+     * @return  false if the document could not be parsed
+     */
+    private boolean scan(File input, GigawordCorpusHandler handler)
+                         throws IOException, SAXException {
+        handler.setVerbose(VERBOSE);
+        GigawordScanner scanner = new GigawordScanner(Utils.gzipCheck(input, 
+                                                     decompressionThreads));
+        handler.setOffsetTracker(scanner);
+        try {
+            scanner.parse(handler);
+        } catch (SAXException ex){
+            if (ex.getException() != null){
+                //failure came from handler's consumer, not the document
+                throw ex;
+            }
+            System.out.println("Cannot parse this document due to " + ex);
+            return false;
+        } catch (RuntimeException ex){
+            System.out.println("Cannot parse this document due to " + ex);
+            return false;
+        } finally {
+            scanner.close();
+        }
+        return true;
+    }
 
-        return docs;
+    /*
+     * Check whether the first element of the stream is a Gigaword <DOC>, 
+     * i.e., whether it lacks a root element. 
+     * Bytes read are pushed back before returning.
+     */
+    private boolean needsRoot(PushbackInputStream inputStream) 
+                              throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+        int read = 0;
+        while (length < head.length 
+               && (read = inputStream.read(head, length, 
+                                           head.length - length)) > 0){
+            length += read;
+        }
+        inputStream.unread(head, 0, length);
+
+        int i = 0;
+        while (i < length){
+            //skip whitespace and byte order mark
+            if (Character.isWhitespace(head[i]) || head[i] < 0){
+                i++;
+            } else if (startsWith(head, length, i, "<?") 
+                       || startsWith(head, length, i, "<!")){
+                //XML declaration, comment or DOCTYPE: can't be wrapped in a
+                //root, so leave as is
+                return false;
+            } else {
+                return startsWith(head, length, i, "<DOC ") 
+                       || startsWith(head, length, i, "<DOC>");
+            }
+        }
+        //nothing but whitespace
+        return false;
+    }
+
+    private boolean startsWith(byte[] bytes, int length, int start, 
+                               String prefix){
+        if (start + prefix.length() > length){
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++){
+            if (Character.toUpperCase((char) bytes[start + i]) 
+                != prefix.charAt(i)){
+                return false;
+            }
+        }
+        return true;
     }
     
     /*
+     * Documents of input, parsed by a background thread as they are asked 
+     * for. The parser runs at most QUEUE_LENGTH documents ahead.
+     * SAX can only parse from the start, so the source is split by reading
+     * ahead (see BatchingDocSource).
+     */
+    public AnnotatedDocSource open(File input){
+        ParsingIterator docs = new ParsingIterator(input);
+        return new BatchingDocSource(docs, docs);
+    }
+
+    /*
+     * Write out AnnotatedDocs of input as GZIPed JSON, one at a time.
      */
     public void convert(File input, File output) throws Exception {
+        Utils.serializeAnnotatedDocs(output, open(input));
+    }
+
+    /*
+     * Runs convert(File, AnnotatedDocConsumer) in its own thread, handing
+     * documents over through a queue.
+     * @param END       Marks the end of the documents in the queue
+     * @param failure   What stopped the parser, to be thrown to the reader
+     */
+    private class ParsingIterator implements Iterator<AnnotatedDoc>, 
+                                             Closeable, Runnable {
+        private final AnnotatedDoc END = new AnnotatedDoc();
+        private File input;
+        private ArrayBlockingQueue<AnnotatedDoc> queue;
+        private Thread parser;
+        private AnnotatedDoc nextDoc = null;
+        private volatile Exception failure = null;
+        private volatile boolean closed = false;
+
+        ParsingIterator(File inputFile){
+            input = inputFile;
+            queue = new ArrayBlockingQueue<AnnotatedDoc>(QUEUE_LENGTH);
+            parser = new Thread(this, "parse " + input.getName());
+            parser.setDaemon(true);
+            parser.start();
+        }
+
+        public void run(){
+            try {
+                convert(input, new AnnotatedDocConsumer(){
+                    public void consume(AnnotatedDoc doc) 
+                                        throws InterruptedException {
+                        queue.put(doc);
+                    }
+                });
+            } catch (Exception e){
+                if (closed){
+                    return;
+                }
+                failure = e;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e){
+                //closed, nobody is waiting for the end
+            }
+        }
+
+        public boolean hasNext(){
+            if (nextDoc == null){
+                try {
+                    nextDoc = queue.take();
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while parsing " 
+                                               + input, e);
+                }
+            }
+            if (nextDoc == END && failure != null){
+                throw new RuntimeException("Unable to parse " + input, 
+                                           failure);
+            }
+            return nextDoc != END;
+        }
+
+        public AnnotatedDoc next(){
+            if (!hasNext()){
+                throw new NoSuchElementException();
+            }
+            AnnotatedDoc doc = nextDoc;
+            nextDoc = null;
+            return doc;
+        }
+
+        public void remove(){
+            throw new UnsupportedOperationException();
+        }
+
+        /*
+         * Stop the parser, if it is still going.
+         */
+        public void close(){
+            closed = true;
+            parser.interrupt();
+        }
     }
 
     /* 
@@ -102,7 +409,9 @@ public class SAXGigawordConverter implements CorpusConverter {
         SequenceInputStream seq = new SequenceInputStream(rootOpen, fileInput);
         SequenceInputStream inputStream = new SequenceInputStream(seq, rootClose);
 
-        InputStreamReader reader = new InputStreamReader(inputStream);
+        //Gigaword is UTF-8, whatever the platform default is
+        InputStreamReader reader = new InputStreamReader(inputStream, 
+                                                         "UTF-8");
 
         return reader;
     }
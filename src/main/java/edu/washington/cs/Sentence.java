@@ -20,6 +20,23 @@ import java.util.HashMap;
  * @param relations List of relations present in sentence.
  *                  Note: data structure currently duplicates data present in
  *                  mentions.
+ * @param tokens    Token words from preprocessing, so the sentence does not
+ *                  need to be tokenized and tagged again to be parsed.
+ *                  Null if the sentence has not been annotated, e.g., if it
+ *                  was read from a file written before tokens were kept.
+ * @param tokenStarts   Character offset of each token with respect to the
+ *                      sentence, i.e., an index into its (entity decoded)
+ *                      text rather than an offset in the source
+ * @param tokenEnds     Character offset of each token's end with respect to
+ *                      the sentence
+ * @param tokenPOS  Part of speech tag of each token
+ * @param tokenNER  NER label of each token, e.g., PERSON or O
+ * @param shiftIndexes  Indexes in sentence from which its chars are further
+ *                      from start in the source document than in sentence,
+ *                      e.g., after &amp; was decoded to &. Null if there are
+ *                      none. Not serialized: only needed to give the
+ *                      sentences split from a paragraph source offsets.
+ * @param shifts        How much further, from each of shiftIndexes on
  */
 public class Sentence {
     private String sentence;
@@ -27,6 +44,13 @@ public class Sentence {
     private int endSpan;
     private HashMap<String, Mention> mentions;
     private ArrayList<RelationAnnotation> relations;
+    private String[] tokens;
+    private int[] tokenStarts;
+    private int[] tokenEnds;
+    private String[] tokenPOS;
+    private String[] tokenNER;
+    private int[] shiftIndexes;
+    private int[] shifts;
     
     /*
      * Empty constructor exists mostly to allow for use of Jackson ObjectMapper
@@ -49,6 +73,13 @@ public class Sentence {
         mentions = new HashMap<String, Mention>();
         mentions.putAll(old.mentions);
         relations = new ArrayList<RelationAnnotation>();
+        tokens = old.tokens;
+        tokenStarts = old.tokenStarts;
+        tokenEnds = old.tokenEnds;
+        tokenPOS = old.tokenPOS;
+        tokenNER = old.tokenNER;
+        shiftIndexes = old.shiftIndexes;
+        shifts = old.shifts;
     }
 
     /*
@@ -135,6 +166,31 @@ public class Sentence {
         return endSpan;
     }
 
+    /*
+     * Record where the text stops lining up with the source document: from
+     * sentence index indexes[i] on, a char is shifts[i] further from start
+     * in the source than in the text.
+     */
+    void setSourceShifts(int[] indexes, int[] sourceShifts){
+        shiftIndexes = indexes;
+        shifts = sourceShifts;
+    }
+
+    /*
+     * Character offset in the source document of index in the text, e.g.,
+     * of where a sentence split from this paragraph starts or ends.
+     */
+    int sourceOffset(int index){
+        int shift = 0;
+        if (shiftIndexes != null){
+            for (int i = 0; i < shiftIndexes.length 
+                            && shiftIndexes[i] <= index; i++){
+                shift = shifts[i];
+            }
+        }
+        return startSpan + index + shift;
+    }
+
     /* 
     * Used to get just the mention strings in the sentence, presumably for use
     * to link mentions to entities.
@@ -150,4 +206,65 @@ public class Sentence {
     public ArrayList<RelationAnnotation> getRelations(){
         return relations;
     }
+
+    /*
+     * Keep token level annotations of the sentence. All arrays have one
+     * entry per token.
+     */
+    public void setTokenAnnotations(String[] words, int[] starts, int[] ends,
+                                    String[] pos, String[] ner){
+        tokens = words;
+        tokenStarts = starts;
+        tokenEnds = ends;
+        tokenPOS = pos;
+        tokenNER = ner;
+    }
+
+    /*
+     * @return  true if tokens, offsets, POS and NER tags are all available
+     */
+    public boolean hasTokenAnnotations(){
+        return tokens != null && tokenStarts != null && tokenEnds != null
+               && tokenPOS != null && tokenNER != null;
+    }
+
+    public String[] getTokens(){
+        return tokens;
+    }
+
+    public void setTokens(String[] words){
+        tokens = words;
+    }
+
+    public int[] getTokenStarts(){
+        return tokenStarts;
+    }
+
+    public void setTokenStarts(int[] starts){
+        tokenStarts = starts;
+    }
+
+    public int[] getTokenEnds(){
+        return tokenEnds;
+    }
+
+    public void setTokenEnds(int[] ends){
+        tokenEnds = ends;
+    }
+
+    public String[] getTokenPOS(){
+        return tokenPOS;
+    }
+
+    public void setTokenPOS(String[] pos){
+        tokenPOS = pos;
+    }
+
+    public String[] getTokenNER(){
+        return tokenNER;
+    }
+
+    public void setTokenNER(String[] ner){
+        tokenNER = ner;
+    }
 }
@@ -7,17 +7,24 @@ package edu.washington.cs;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 public class StripSGML implements CorpusConverter {
+    private boolean VERBOSE = false;
+
+    public void setVerbose(boolean verbose){
+        VERBOSE = verbose;
+    }
+
     public ArrayList<AnnotatedDoc> convert(File input) throws IOException {
-    	BufferedReader reader = new BufferedReader(new FileReader(input));
+    	BufferedReader reader = new BufferedReader(new InputStreamReader(
+                                Utils.gzipCheck(input), "UTF-8"));
         String docid = "";
         int startOffset = 0;
         int characterOffset = 0;
@@ -38,14 +45,18 @@ public class StripSGML implements CorpusConverter {
                     Matcher getDocID = pattern.matcher(line);
                     if (getDocID.find()) {
                         docid = getDocID.group(1);
-                        System.out.println("DocID "+docid);
+                        if (VERBOSE){
+                            System.out.println("DocID "+docid);
+                        }
                     }
                     startOffset = characterOffset;
                 }
                 else if (line.startsWith("<DOCNO>")) {
                     String[] id = line.trim().split(" ");
                     docid = id[1];
-                    System.out.println("DocID " + docid);
+                    if (VERBOSE){
+                        System.out.println("DocID " + docid);
+                    }
                     startOffset = characterOffset;
                 }	
                 //reached end of doc, add everything accumulated
@@ -66,28 +77,51 @@ public class StripSGML implements CorpusConverter {
         return allDocs;
     }
     
+    /*
+     * Converts the whole file, then keeps only the documents asked for.
+     */
+    public ArrayList<AnnotatedDoc> convert(File input, 
+                                           Collection<String> docIDs) 
+                                           throws IOException {
+        ArrayList<AnnotatedDoc> docs = convert(input);
+        Iterator<AnnotatedDoc> docIter = docs.iterator();
+        while (docIter.hasNext()){
+            if (!docIDs.contains(docIter.next().getID())){
+                docIter.remove();
+            }
+        }
+        return docs;
+    }
+    
+    /*
+     * Whole file is converted up front, so this does not save any memory.
+     */
+    public AnnotatedDocSource open(File input) throws IOException {
+        return new BatchingDocSource(convert(input).iterator(), null);
+    }
+
+    /*
+     * Write out AnnotatedDocs of input as GZIPed JSON. If input is a 
+     * directory, output is a directory with one JSON file for each file in
+     * input.
+     */
     public void convert(File input, File output) throws Exception {
-    // If input is a directory, process each file in directory
-    	System.out.println("Processing");
-    	FileOutputStream out = new FileOutputStream(output);
-        if (input.canRead()){
-            if (input.isDirectory()){
-            	System.out.println("Directory");
-                String[] documents = input.list();
-                    for (int i = 0; i < documents.length; i++){
-                        convert(new File(input, documents[i]), output);
-                    }
+        if (input.isDirectory()){
+            if (VERBOSE){
+                System.out.println("Directory");
             }
-            else {
-            	System.out.println("Found file");
-            	ArrayList<AnnotatedDoc> newDocs = convert(input);
-            	System.out.println(newDocs.toArray().length + " documents");
-            	for (AnnotatedDoc doc : newDocs){
-            		out.write(doc.toString().getBytes());
-            		out.write("\r".getBytes());
-            	}
-            	out.close();
+            String[] documents = input.list();
+            for (int i = 0; i < documents.length; i++){
+                File document = new File(input, documents[i]);
+                if (document.isDirectory()){
+                    convert(document, new File(output, documents[i]));
+                } else {
+                    convert(document, 
+                            new File(output, documents[i] + ".json.gz"));
+                }
             }
+        } else if (input.canRead()){
+            Utils.serializeAnnotatedDocs(output, open(input));
         }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Token level annotations of one sentence, column by column, for building
+ * MultiR output without a String or list entry per token and annotation.
+ * @author Laurel Hart
+ */
+package edu.washington.cs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Offsets and dependency token indexes are ints. POS and NER tags and
+ * dependency labels come from small sets, so they are stored as ordinals of
+ * a label table shared by every sentence this is used for. The columns are
+ * meant to be reused: clear() empties them for the next sentence but keeps
+ * the arrays and the label table, which only grow.
+ *
+ * Dependencies are kept in SENTDEPENDENCYINFORMATION order: start token,
+ * label, end token (see MultiRInstance).
+ *
+ * @param size          Number of tokens
+ * @param dependencies  Number of dependencies
+ * @param labels        Label of each ordinal
+ * @param ordinals      Ordinal of each label
+ */
+class TokenColumns {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size = 0;
+    private String[] words = new String[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int[] pos = new int[INITIAL_CAPACITY];
+    private int[] ner = new int[INITIAL_CAPACITY];
+
+    private int dependencies = 0;
+    private int[] dependencyStarts = new int[INITIAL_CAPACITY];
+    private int[] dependencyLabels = new int[INITIAL_CAPACITY];
+    private int[] dependencyEnds = new int[INITIAL_CAPACITY];
+
+    private ArrayList<String> labels = new ArrayList<String>();
+    private HashMap<String, Integer> ordinals
+        = new HashMap<String, Integer>();
+
+    /*
+     * Empty the columns for the next sentence.
+     */
+    public void clear(){
+        //drop references so words of earlier sentences can be collected
+        Arrays.fill(words, 0, size, null);
+        size = 0;
+        dependencies = 0;
+    }
+
+    public void addToken(String word, int start, int end, String posTag,
+                         String nerTag){
+        if (size == words.length){
+            int capacity = 2 * size;
+            words = Arrays.copyOf(words, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            pos = Arrays.copyOf(pos, capacity);
+            ner = Arrays.copyOf(ner, capacity);
+        }
+        words[size] = word;
+        starts[size] = start;
+        ends[size] = end;
+        pos[size] = ordinal(posTag);
+        ner[size] = ordinal(nerTag);
+        size++;
+    }
+
+    public void addDependency(int start, String label, int end){
+        if (dependencies == dependencyStarts.length){
+            int capacity = 2 * dependencies;
+            dependencyStarts = Arrays.copyOf(dependencyStarts, capacity);
+            dependencyLabels = Arrays.copyOf(dependencyLabels, capacity);
+            dependencyEnds = Arrays.copyOf(dependencyEnds, capacity);
+        }
+        dependencyStarts[dependencies] = start;
+        dependencyLabels[dependencies] = ordinal(label);
+        dependencyEnds[dependencies] = end;
+        dependencies++;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public String getWord(int token){
+        return words[token];
+    }
+
+    public int getStart(int token){
+        return starts[token];
+    }
+
+    public int getEnd(int token){
+        return ends[token];
+    }
+
+    public String getPOS(int token){
+        return labels.get(pos[token]);
+    }
+
+    public String getNER(int token){
+        return labels.get(ner[token]);
+    }
+
+    public int dependencyCount(){
+        return dependencies;
+    }
+
+    public int getDependencyStart(int dependency){
+        return dependencyStarts[dependency];
+    }
+
+    public String getDependencyLabel(int dependency){
+        return labels.get(dependencyLabels[dependency]);
+    }
+
+    public int getDependencyEnd(int dependency){
+        return dependencyEnds[dependency];
+    }
+
+    /*
+     * Ordinal of label, adding it to the table if new. Null is a label too.
+     */
+    private int ordinal(String label){
+        Integer ordinal = ordinals.get(label);
+        if (ordinal == null){
+            ordinal = labels.size();
+            labels.add(label);
+            ordinals.put(label, ordinal);
+        }
+        return ordinal;
+    }
+}
@@ -4,18 +4,29 @@
  */
 package edu.washington.cs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File; 
 import java.io.FileInputStream; 
 import java.io.FilenameFilter; 
 import java.io.FileOutputStream; 
 import java.io.InputStream; 
 import java.io.IOException; 
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -94,6 +105,73 @@ class Utils {
      * Return appropriate InputStream.
      */
     public static InputStream gzipCheck(File input) throws IOException{
+        return gzipCheck(input, 1);
+    }
+
+    /*
+     * Check whether input File is in GZIP format.
+     * Return appropriate InputStream, decompressing with up to threads
+     * threads if the file is made of several gzip members whose boundaries
+     * are known: block-gzipped (BGZF) files, or files with a GigawordIndex.
+     */
+    public static InputStream gzipCheck(File input, int threads) 
+                                        throws IOException{
+        InputStream inputStream = new FileInputStream(input);
+        if (!isGzipped(input)) {
+            return inputStream;
+        }
+        if (threads <= 1) {
+            return new GZIPInputStream(inputStream, 1 << 16);
+        }
+        List<long[]> members = null;
+        File indexFile = GigawordIndex.indexFileFor(input);
+        if (indexFile.exists() 
+            && indexFile.lastModified() >= input.lastModified()){
+            members = GigawordIndex.read(indexFile).getCheckpoints();
+        }
+        return new ParallelGzipInputStream(
+               new BufferedInputStream(inputStream, 1 << 16), members, threads);
+    }
+
+    /*
+     * Block-gzip (BGZF) input, which may already be gzipped, into output, 
+     * so that it can be decompressed in parallel.
+     */
+    public static void blockGzip(File input, File output, int threads) 
+                                 throws IOException {
+        InputStream inputStream = gzipCheck(input, threads);
+        OutputStream outputStream = blockGzipOutputStream(output, threads);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1){
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+    }
+
+    /*
+     * OutputStream which block-gzips (BGZF) to output, compressing with up to
+     * threads threads.
+     */
+    public static OutputStream blockGzipOutputStream(File output, int threads)
+                                                     throws IOException {
+        //create any intermediate directories that need to be created
+        File parentDirs = output.getParentFile();
+        if (parentDirs != null && !parentDirs.exists()){
+            parentDirs.mkdirs();
+        } 
+        return new BlockGzipOutputStream(new BufferedOutputStream(
+                   new FileOutputStream(output), 1 << 16), threads);
+    }
+
+    /*
+     * Check whether input File starts with the GZIP magic number.
+     */
+    public static boolean isGzipped(File input){
         int magic = 0;
         try {
             RandomAccessFile raf = new RandomAccessFile(input, "r");
@@ -102,11 +180,72 @@ class Utils {
         } catch (Throwable e) {
             e.printStackTrace(System.err);
         }
-        InputStream inputStream = new FileInputStream(input);
-        if (magic == GZIPInputStream.GZIP_MAGIC) {
-            inputStream = new GZIPInputStream(inputStream);
+        return magic == GZIPInputStream.GZIP_MAGIC;
+    }
+
+    /*
+     * Write out AnnotatedDocs from source as a GZIPed JSON array, one 
+     * document at a time, so they never all have to be in memory. Can be 
+     * read back with deserializeAnnotatedDocs. Closes source.
+     */
+    public static void serializeAnnotatedDocs(File output, 
+                       AnnotatedDocSource source) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            //create any intermediate directories that need to be created
+            File parentDirs = output.getParentFile();
+            if (parentDirs != null && !parentDirs.exists()){
+                parentDirs.mkdirs();
+            } 
+
+            GZIPOutputStream out = new GZIPOutputStream(
+                                   new FileOutputStream(output));
+            JsonGenerator generator = mapper.getJsonFactory()
+                                      .createJsonGenerator(out, 
+                                                           JsonEncoding.UTF8);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            while (source.hasNext()){
+                mapper.writeValue(generator, source.next());
+            }
+            generator.writeEndArray();
+            generator.close();
+            out.close();
+        } finally {
+            source.close();
         }
-        return inputStream;
+    }
+
+    /*
+     * Fixed size pool of daemon threads, so that a pool which is not shut
+     * down does not keep the JVM alive.
+     */
+    public static ExecutorService newDaemonPool(int threads, 
+                                                final String name){
+        return Executors.newFixedThreadPool(Math.max(threads, 1), 
+                                            daemonThreads(name));
+    }
+
+    /*
+     * Single daemon thread to run tasks after a delay, e.g., timeouts. 
+     * Cancelled tasks are dropped right away, so timeouts that are nearly 
+     * always cancelled do not pile up.
+     */
+    public static ScheduledExecutorService newDaemonTimer(String name){
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(
+                                            1, daemonThreads(name));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static ThreadFactory daemonThreads(final String name){
+        return new ThreadFactory(){
+            public Thread newThread(Runnable runnable){
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
     }
 
     /*